@@ -0,0 +1,98 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import binson.BinsonLight.ValueType;
+
+public class BinsonColumnsTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        int n = 1000;
+        BinsonColumns cols = new BinsonColumns();
+        BinsonColumns.Column v = cols.add("v", ValueType.DOUBLE);
+        BinsonColumns.Column ts = cols.add("ts", ValueType.INTEGER);
+        BinsonColumns.Column ok = cols.add("ok", ValueType.BOOLEAN);
+        BinsonColumns.Column host = cols.add("host", ValueType.STRING);
+        
+        cols.setRows(n);
+        for (int i = 0; i < n; i++) {
+            ts.integers[i] = 1000000L * i;
+            v.doubles[i] = i / 4.0;
+            ok.booleans[i] = i % 3 == 0;
+            host.setString(i, ("h" + (i % 7)).getBytes("UTF-8"));
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        w.begin().name("batch");
+        cols.write(w);
+        w.name("z").integer(1).end();
+        
+        BinsonColumns cols2 = new BinsonColumns();
+        BinsonColumns.Column ts2 = cols2.add("ts", ValueType.INTEGER);
+        BinsonColumns.Column host2 = cols2.add("host", ValueType.STRING);
+        BinsonColumns.Column v2 = cols2.add("v", ValueType.DOUBLE);
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(out.toByteArray());
+        p.field("batch");
+        p.goIntoArray();
+        assertEquals(n, cols2.read(p));
+        p.goUpToObject();
+        p.field("z");
+        assertEquals(1, p.getInteger());
+        
+        for (int i = 0; i < n; i++) {
+            assertEquals(1000000L * i, ts2.integers[i]);
+            assertEquals(i / 4.0, v2.doubles[i], 0.0);
+            assertEquals("h" + (i % 7), host2.getString(i));
+        }
+    }
+    
+    @Test
+    public void testRowFormat() throws IOException {
+        // {r=[{a=1;b="x";}];}
+        BinsonColumns cols = new BinsonColumns();
+        BinsonColumns.Column b = cols.add("b", ValueType.STRING);
+        BinsonColumns.Column a = cols.add("a", ValueType.INTEGER);
+        cols.setRows(1);
+        a.integers[0] = 1;
+        b.setString(0, new byte[] {'x'});
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        w.begin().name("r");
+        cols.write(w);
+        w.end();
+        
+        assertEquals("4014017242401401611001140162140178414341", Hex.create(out.toByteArray()));
+    }
+    
+    @Test
+    public void testErrors() {
+        String[] bad = {
+            "401401724240140161100141401401621002414341",  // {r=[{a=1;};{b=2;}];}
+            "401401724240140161140178414341",              // {r=[{a="x";}];}
+            "401401724210014341"                           // {r=[1];}
+        };
+        
+        for (String hex : bad) {
+            BinsonColumns cols = new BinsonColumns();
+            cols.add("a", ValueType.INTEGER);
+            BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes(hex));
+            p.field("r");
+            p.goIntoArray();
+            try {
+                cols.read(p);
+                fail("expected FormatException for " + hex);
+            } catch (BinsonLight.FormatException e) {
+                // expected
+            }
+        }
+    }
+}
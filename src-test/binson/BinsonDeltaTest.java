@@ -0,0 +1,138 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BinsonDeltaTest {
+    private static final String TEXT = "some text to make keyframes big";
+    
+    private final BinsonDelta.Encoder encoder = new BinsonDelta.Encoder(100);
+    private final BinsonDelta.Decoder decoder = new BinsonDelta.Decoder();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final BinsonLight.Writer w = new BinsonLight.Writer(out);
+    
+    @Test
+    public void testPatches() throws IOException {
+        String s = "long string value";
+        w.begin().name("a").integer(1).name("b").string(s)
+            .name("c").begin().name("x").beginArray().integer(1).integer(2).integer(3).endArray().end()
+            .name("d").doubl(4.5).name("e").bool(true).end();
+        byte[] m0 = output();
+        w.begin().name("a").integer(2).name("b").string(s)
+            .name("c").begin().name("x").beginArray().integer(1).integer(2).integer(3).endArray().end()
+            .name("d").doubl(4.5).name("e").bool(true).end();
+        byte[] m1 = output();
+        w.begin().name("a").integer(2).name("aa").integer(0).name("b").string(s)
+            .name("c").begin().name("x").beginArray().integer(1).integer(2).integer(4).endArray().end()
+            .name("d").doubl(4.5).end();
+        byte[] m2 = output();
+        w.begin().name("b").string(s)
+            .name("c").begin().name("x").beginArray().integer(1).integer(2).integer(4).endArray().end()
+            .name("d").doubl(4.5).name("f").string("new").end();
+        byte[] m3 = output();
+        
+        w.begin().name("key").raw(m0, 0, m0.length).name("seq").integer(0).end();
+        assertEquals(hex(), send(m0));
+        
+        w.begin().name("seq").integer(1).name("set").begin().name("a").integer(2).end().end();
+        assertEquals(hex(), send(m1));
+        
+        w.begin().name("del").beginArray().string("e").endArray()
+            .name("seq").integer(2)
+            .name("set").begin().name("aa").integer(0)
+                .name("c").begin().name("x").beginArray().integer(1).integer(2).integer(4).endArray().end()
+                .end()
+            .end();
+        assertEquals(hex(), send(m2));
+        
+        w.begin().name("del").beginArray().string("a").string("aa").endArray()
+            .name("seq").integer(3)
+            .name("set").begin().name("f").string("new").end()
+            .end();
+        assertEquals(hex(), send(m3));
+        
+        w.begin().name("seq").integer(4).end();
+        assertEquals(hex(), send(m3));
+        assertEquals(4, decoder.sequence());
+    }
+    
+    @Test
+    public void testLossAndResync() throws IOException {
+        byte[] m0 = message(1);
+        byte[] m1 = message(2);
+        byte[] m2 = message(3);
+        
+        send(m0);
+        ByteArrayOutputStream lost = new ByteArrayOutputStream();
+        encoder.encode(m1, 0, lost);
+        
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        assertFalse(encoder.encode(m2, 0, patch));
+        assertFalse(decoder.decode(patch.toByteArray(), 0));
+        assertEquals(Hex.create(m0), Hex.create(decoder.toBytes()));
+        
+        encoder.requestKeyframe();
+        patch.reset();
+        assertTrue(encoder.encode(m1, 0, patch));
+        assertTrue(decoder.decode(patch.toByteArray(), 0));
+        assertEquals(Hex.create(m1), Hex.create(decoder.toBytes()));
+        
+        w.begin().name("seq").integer(4).name("set").begin().name("a").integer(3).end().end();
+        assertEquals(hex(), send(m2));
+    }
+    
+    @Test
+    public void testKeyframeInterval() throws IOException {
+        BinsonDelta.Encoder e = new BinsonDelta.Encoder(3);
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            sb.append(e.encode(message(i), 0, patch) ? 'K' : 'p');
+        }
+        assertEquals("KppKppK", sb.toString());
+    }
+    
+    @Test
+    public void testSmallMessageIsKeyframe() throws IOException {
+        // {a=1}, then {a=2}
+        send(Hex.toBytes("40140161100141"));
+        
+        // {key={a=2};seq=1}
+        assertEquals("4014036b6579401401611002411403736571100141", send(Hex.toBytes("40140161100241")));
+    }
+    
+    /** Returns {a=a;b=TEXT}. */
+    private byte[] message(int a) throws IOException {
+        w.begin().name("a").integer(a).name("b").string(TEXT).end();
+        return output();
+    }
+    
+    /** Returns the bytes written with 'w' since the last call. */
+    private byte[] output() throws IOException {
+        w.flush();
+        byte[] bytes = out.toByteArray();
+        out.reset();
+        return bytes;
+    }
+    
+    private String hex() throws IOException {
+        return Hex.create(output());
+    }
+    
+    /** Encodes and decodes a message, checks the result, returns the patch as hex. */
+    private String send(byte[] message) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        encoder.encode(message, 0, patch);
+        
+        assertTrue(decoder.decode(patch.toByteArray(), 0));
+        assertEquals(Hex.create(message), Hex.create(decoder.toBytes()));
+        assertEquals(decoder.size(), decoder.toBytes().length);
+        return Hex.create(patch.toByteArray());
+    }
+}
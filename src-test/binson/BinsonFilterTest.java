@@ -0,0 +1,104 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BinsonFilterTest {
+    @Test
+    public void testConditions() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinsonLight.Writer(out).begin().name("price").doubl(9.25).name("qty").integer(1500)
+            .name("test").bool(false).name("type").string("trade").end();
+        byte[] trade = out.toByteArray();
+        
+        assertTrue(BinsonFilter.compile("type == \"trade\" && qty > 1000").matches(trade, 0));
+        assertTrue(BinsonFilter.compile("qty>=1500&&qty<=1500 && price < 9.5 && test != true").matches(trade, 0));
+        assertTrue(BinsonFilter.compile("price > 9 && qty < 1500.5 && type > \"quote\"").matches(trade, 0));
+        assertFalse(BinsonFilter.compile("type == \"quote\"").matches(trade, 0));
+        assertFalse(BinsonFilter.compile("qty > 1500").matches(trade, 0));
+        assertFalse(BinsonFilter.compile("missing == 1").matches(trade, 0));
+        assertFalse(BinsonFilter.compile("type == 1").matches(trade, 0));
+        assertFalse(BinsonFilter.compile("zzz != 1").matches(trade, 0));
+    }
+    
+    @Test
+    public void testStringEscapesAndUtf8() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinsonLight.Writer(out).begin().name("s").string("a\"ö").end();
+        byte[] b = out.toByteArray();
+        assertTrue(BinsonFilter.compile("s == \"a\\\"ö\"").matches(b, 0));
+        assertTrue(BinsonFilter.compile("s < \"a\\\"ü\"").matches(b, 0));
+    }
+    
+    @Test
+    public void testStreamAndStatistics() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        for (int i = 0; i < 10; i++) {
+            w.begin().name("n").integer(i).name("obj").begin().name("x").integer(1).end()
+                .name("type").string(i % 2 == 0 ? "trade" : "quote").end();
+        }
+        byte[] bytes = out.toByteArray();
+        
+        BinsonFilter f = BinsonFilter.compile("type == \"trade\" && n >= 4");
+        f.reset(bytes, 0, bytes.length);
+        StringBuilder sb = new StringBuilder();
+        while (f.next()) {
+            BinsonLight.Parser p = new BinsonLight.Parser(bytes, f.recordOffset());
+            p.field("n");
+            sb.append(p.getInteger()).append(' ');
+            assertEquals(bytes.length / 10, f.recordSize());
+        }
+        
+        assertEquals("4 6 8 ", sb.toString());
+        assertEquals(2, f.conditions());
+        assertEquals(10, f.records());
+        assertEquals(3, f.matched());
+        assertEquals(0.3, f.selectivity(), 1e-9);
+        assertEquals(3, f.rejectedBy(0));  // n is evaluated first, in field order
+        assertEquals(4, f.rejectedBy(1));
+        
+        f.resetStatistics();
+        assertEquals(0, f.records());
+        assertEquals(0, f.rejectedBy(0));
+    }
+    
+    @Test
+    public void testStreamWithMissingLastField() throws IOException {
+        // {a=1}{z=1}, "z" sorts after all fields of the first object.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        w.begin().name("a").integer(1).end();
+        w.begin().name("z").integer(1).end();
+        byte[] bytes = out.toByteArray();
+        
+        BinsonFilter f = BinsonFilter.compile("z == 1");
+        f.reset(bytes, 0, bytes.length);
+        assertTrue(f.next());
+        assertEquals(7, f.recordOffset());
+        assertEquals(7, f.recordSize());
+        assertFalse(f.next());
+        assertEquals(1, f.rejectedBy(0));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadOperator() {
+        BinsonFilter.compile("a = 1");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadBooleanOperator() {
+        BinsonFilter.compile("a < true");
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testTrailingGarbage() {
+        BinsonFilter.compile("a == 1 || b == 2");
+    }
+}
@@ -0,0 +1,172 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.Test;
+
+public class BinsonFramesTest {
+    @Test
+    public void testPipe() throws Exception {
+        final int count = 2000;
+        final Pipe pipe = Pipe.open();
+        
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    BinsonFrames.Output out = new BinsonFrames.Output(true);
+                    BinsonLight.Writer w = new BinsonLight.Writer(out);
+                    
+                    for (int i = 0; i < count; i++) {
+                        out.reset();
+                        w.begin().name("i").integer(i).name("s").bytes(new byte[i % 300]).end();
+                        ByteBuffer frame = out.finish();
+                        while (frame.hasRemaining()) {
+                            pipe.sink().write(frame);
+                        }
+                    }
+                    pipe.sink().close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        writer.start();
+        
+        BinsonFrames.Input in = new BinsonFrames.Input(true, 1000);
+        BinsonLight.Parser p = new BinsonLight.Parser(new byte[0]);
+        int received = 0;
+        
+        while (in.read(pipe.source()) != -1) {
+            while (in.next()) {
+                p.reset(in.buffer(), in.frameOffset());
+                p.field("i");
+                assertEquals(received, p.getInteger());
+                p.field("s");
+                assertEquals(received % 300, p.getBytes().size);
+                received++;
+            }
+        }
+        
+        writer.join();
+        assertEquals(count, received);
+    }
+    
+    @Test
+    public void testOneByteAtATime() throws IOException {
+        BinsonFrames.Output out = new BinsonFrames.Output(false);
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        w.begin().name("a").string("hello").end();
+        ByteBuffer frame = out.finish();
+        assertEquals(BinsonFrames.SIZE_FIELD_SIZE + out.payloadSize(), frame.remaining());
+        
+        final byte[] bytes = new byte[frame.remaining() * 3];
+        for (int i = 0; i < 3; i++) {
+            frame.duplicate().get(bytes, i * frame.remaining(), frame.remaining());
+        }
+        
+        ReadableByteChannel slow = new ReadableByteChannel() {
+            int pos = 0;
+            public boolean isOpen() { return true; }
+            public void close() {}
+            public int read(ByteBuffer dst) {
+                if (pos == bytes.length) {
+                    return -1;
+                }
+                dst.put(bytes[pos++]);
+                return 1;
+            }
+        };
+        
+        BinsonFrames.Input in = new BinsonFrames.Input(false, 100);
+        int received = 0;
+        while (in.read(slow) != -1) {
+            while (in.next()) {
+                BinsonLight.Parser p = new BinsonLight.Parser(in.buffer(), in.frameOffset());
+                p.field("a");
+                assertEquals("hello", p.getString().toString());
+                received++;
+            }
+        }
+        assertEquals(3, received);
+    }
+    
+    @Test
+    public void testBadChecksumAndSize() throws IOException {
+        BinsonFrames.Output out = new BinsonFrames.Output(true);
+        new BinsonLight.Writer(out).begin().name("a").integer(1).end();
+        ByteBuffer frame = out.finish();
+        frame.put(frame.limit() - 2, (byte) 2);
+        
+        BinsonFrames.Input in = new BinsonFrames.Input(true, 100);
+        in.read(channel(frame));
+        try {
+            in.next();
+            fail("expected FormatException");
+        } catch (BinsonLight.FormatException e) {
+            assertEquals(true, e.getMessage().contains("checksum"));
+        }
+        
+        in = new BinsonFrames.Input(true, 4);
+        frame.rewind();
+        in.read(channel(frame));
+        try {
+            in.next();
+            fail("expected FormatException");
+        } catch (BinsonLight.FormatException e) {
+            assertEquals(true, e.getMessage().contains("size"));
+        }
+    }
+    
+    @Test
+    public void testRawPayload() throws IOException {
+        // {a=1;} = 40140161100141, copied with Writer.raw() as the last write.
+        byte[] object = Hex.toBytes("40140161100141");
+        BinsonFrames.Output out = new BinsonFrames.Output(false);
+        new BinsonLight.Writer(out).raw(object, 0, object.length);
+        
+        ByteBuffer frame = out.finish();
+        assertEquals(object.length, out.payloadSize());
+        assertEquals("0700000040140161100141", Hex.create(frame.array(), 0, frame.limit()));
+    }
+    
+    @Test
+    public void testLargestMaxFrameSize() throws IOException {
+        boolean[] checksums = {false, true};
+        int[] maxSizes = {Integer.MAX_VALUE, Integer.MAX_VALUE - 4};
+        
+        for (int i = 0; i < 2; i++) {
+            BinsonFrames.Output out = new BinsonFrames.Output(checksums[i]);
+            new BinsonLight.Writer(out).begin().name("a").integer(1).end();
+            
+            BinsonFrames.Input in = new BinsonFrames.Input(checksums[i], maxSizes[i]);
+            in.read(channel(out.finish()));
+            assertEquals(true, in.next());
+            BinsonLight.Parser p = new BinsonLight.Parser(in.buffer(), in.frameOffset());
+            p.field("a");
+            assertEquals(1, p.getInteger());
+        }
+    }
+    
+    private static ReadableByteChannel channel(final ByteBuffer source) {
+        return new ReadableByteChannel() {
+            public boolean isOpen() { return true; }
+            public void close() {}
+            public int read(ByteBuffer dst) {
+                if (!source.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(dst.remaining(), source.remaining());
+                for (int i = 0; i < n; i++) {
+                    dst.put(source.get());
+                }
+                return n;
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BinsonJsonTest {
+    @Test
+    public void testEmpty() {
+        assertEquals("{}", BinsonJson.toJson(Hex.toBytes("4041")));
+    }
+    
+    @Test
+    public void testNested() {
+        // {a=1; b=[10, [100, 101], 20]; c=3}
+        // 40140161100114016242100a421064106543101443140163100341
+        
+        String json = BinsonJson.toJson(Hex.toBytes("40140161100114016242100a421064106543101443140163100341"));
+        assertEquals("{\"a\":1,\"b\":[10,[100,101],20],\"c\":3}", json);
+    }
+    
+    @Test
+    public void testAllTypes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        
+        w.begin()
+            .name("a").bool(true)
+            .name("b").bytes(new byte[] {1, 2, 3, 4})
+            .name("c").doubl(-2.5)
+            .name("d").integer(-70000)
+            .name("e").beginArray().begin().name("x").bool(false).end().endArray()
+            .name("s").string("q\"\\\nå€😀")
+        .end().flush();
+        
+        String json = BinsonJson.toJson(out.toByteArray());
+        assertEquals("{\"a\":true,\"b\":\"AQIDBA==\",\"c\":-2.5,\"d\":-70000,"
+                + "\"e\":[{\"x\":false}],\"s\":\"q\\\"\\\\\\nå€😀\"}", json);
+    }
+    
+    @Test
+    public void testReuseStringBuilder() {
+        StringBuilder sb = new StringBuilder();
+        BinsonJson.toJson(Hex.toBytes("401403636964100441"), 0, sb);
+        assertEquals("{\"cid\":4}", sb.toString());
+        
+        sb.setLength(0);
+        BinsonJson.toJson(Hex.toBytes("00401401611402626241"), 1, sb);
+        assertEquals("{\"a\":\"bb\"}", sb.toString());
+    }
+    
+    @Test
+    public void testFromJsonSortsFields() {
+        // {a=1; b={c=3;}; d=4}
+        // 40140161100114016240140163100341140164100441
+        
+        byte[] bytes = BinsonJson.fromJson(" { \"d\": 4, \"b\" : {\"c\":3}, \"a\":1 } ");
+        assertEquals("40140161100114016240140163100341140164100441", Hex.create(bytes));
+    }
+    
+    @Test
+    public void testFromJsonSortOrder() {
+        // Shorter name first if prefix; unsigned byte order.
+        byte[] bytes = BinsonJson.fromJson("{\"ab\":1, \"\u00e5\":2, \"a\":3, \"B\":4}");
+        assertEquals("{\"B\":4,\"a\":3,\"ab\":1,\"å\":2}", BinsonJson.toJson(bytes));
+    }
+    
+    @Test
+    public void testFromJsonArrayInArray() {
+        //  {a=1; b=[10, [100, 101], 20]; c=3}
+        //  40140161100114016242100a421064106543101443140163100341
+        
+        byte[] bytes = BinsonJson.fromJson("{\"c\":3,\"b\":[10,[100,101],20],\"a\":1}");
+        assertEquals("40140161100114016242100a421064106543101443140163100341", Hex.create(bytes));
+    }
+    
+    @Test
+    public void testFromJsonRoundTrip() {
+        String json = "{\"a\":true,\"c\":-2.5,\"d\":-70000,\"e\":[{\"x\":false},[],{}],"
+                + "\"l\":-9223372036854775808,\"s\":\"q\\\"\\\\\\n\\u00e5\\ud83d\\ude00\"}";
+        byte[] bytes = BinsonJson.fromJson(json);
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(bytes);
+        p.field("l");
+        assertEquals(Long.MIN_VALUE, p.getInteger());
+        p.field("s");
+        assertEquals("q\"\\\nå\ud83d\ude00", p.getString().toString());
+        
+        assertEquals("{\"a\":true,\"c\":-2.5,\"d\":-70000,\"e\":[{\"x\":false},[],{}],"
+                + "\"l\":-9223372036854775808,\"s\":\"q\\\"\\\\\\nå😀\"}", BinsonJson.toJson(bytes));
+    }
+    
+    @Test
+    public void testFromJsonLargeNumbers() {
+        byte[] bytes = BinsonJson.fromJson("{\"a\":9223372036854775808,\"b\":1e3}");
+        BinsonLight.Parser p = new BinsonLight.Parser(bytes);
+        p.field("a");
+        assertEquals(BinsonLight.ValueType.DOUBLE, p.getType());
+        assertEquals(9.223372036854775808e18, p.getDouble(), 0.0);
+        p.field("b");
+        assertEquals(1000.0, p.getDouble(), 0.0);
+    }
+    
+    @Test
+    public void testFromJsonErrors() {
+        String[] bad = {"[]", "{\"a\":null}", "{\"a\":1,\"a\":2}", "{\"a\":1", "{\"a\" 1}", "{} x"};
+        for (String json : bad) {
+            try {
+                BinsonJson.fromJson(json);
+                fail("expected FormatException for " + json);
+            } catch (BinsonLight.FormatException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BinsonMergeTest {
+    @Test
+    public void testEmpty() {
+        byte[] empty = Hex.toBytes("4041");
+        assertEquals("4041", Hex.create(BinsonMerge.merge(empty, empty)));
+        
+        // {a=1;b=[1,2];}
+        byte[] a = Hex.toBytes("40140161100114016242100110024341");
+        assertEquals(Hex.create(a), Hex.create(BinsonMerge.merge(a, empty)));
+        assertEquals(Hex.create(a), Hex.create(BinsonMerge.merge(empty, a)));
+    }
+    
+    @Test
+    public void testInterleaved() {
+        // {a=1;c=3;e=5;}
+        byte[] base = Hex.toBytes("4014016110011401631003140165100541");
+        // {b=2;c="x";d=4;f=6;}
+        byte[] patch = Hex.toBytes("4014016210021401631401781401641004140166100641");
+        
+        // {a=1;b=2;c="x";d=4;e=5;f=6;}
+        assertEquals("401401611001140162100214016314017814016410041401651005140166100641", 
+                Hex.create(BinsonMerge.merge(base, patch)));
+    }
+    
+    @Test
+    public void testNested() {
+        // {cfg={db={host="a";port=1;};log={level=1;};};v=1;}
+        byte[] base = Hex.toBytes("4014036366674014026462401404686f73741401611404706f727410014114036c6f67"
+                + "4014056c6576656c10014141140176100141");
+        // {cfg={db={port=2;user="u";};log=7;};}
+        byte[] patch = Hex.toBytes("4014036366674014026462401404706f727410021404757365721401754114036c6f67"
+                + "10074141");
+        
+        // {cfg={db={host="a";port=2;user="u";};log=7;};v=1;}
+        assertEquals("4014036366674014026462401404686f73741401611404706f727410021404757365721401754114036c6f67"
+                + "100741140176100141", 
+                Hex.create(BinsonMerge.merge(base, patch)));
+    }
+    
+    @Test
+    public void testObjectReplacesScalar() {
+        // {a=1;b=[{x=1;}];}
+        byte[] base = Hex.toBytes("40140161100114016242401401781001414341");
+        // {a={y=2;};b=[];}
+        byte[] patch = Hex.toBytes("4014016140140179100241140162424341");
+        
+        assertEquals(Hex.create(patch), Hex.create(BinsonMerge.merge(base, patch)));
+    }
+}
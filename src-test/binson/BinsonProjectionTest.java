@@ -0,0 +1,49 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BinsonProjectionTest {
+    // {a=1; b={c=3; d={e=5; f=6;};}; g=[1, {h=2;}]; i="x"}
+    private final byte[] input = Hex.toBytes(
+            "40140161100114016240140163100314016440140165100514016610064141140167421001401401681002414314016914017841");
+    
+    @Test
+    public void testNoPaths() {
+        assertEquals(Hex.create(input), Hex.create(new BinsonProjection().transform(input)));
+    }
+    
+    @Test
+    public void testExclude() {
+        BinsonProjection p = new BinsonProjection().exclude("a").exclude("b.d.e").exclude("g.h");
+        // {b={c=3; d={f=6;};}; g=[1, {h=2;}]; i="x"}
+        assertEquals("401401624014016310031401644014016610064141140167421001401401681002414314016914017841", 
+                Hex.create(p.transform(input)));
+    }
+    
+    @Test
+    public void testExcludeObject() {
+        BinsonProjection p = new BinsonProjection().exclude("b.d").exclude("i");
+        // {a=1; b={c=3;}; g=[1, {h=2;}]}
+        assertEquals("40140161100114016240140163100341140167421001401401681002414341", 
+                Hex.create(p.transform(input)));
+    }
+    
+    @Test
+    public void testInclude() {
+        BinsonProjection p = new BinsonProjection().include("b.d.f").include("i").include("x.y");
+        // {b={d={f=6;};}; i="x"}
+        assertEquals("4014016240140164401401661006414114016914017841", 
+                Hex.create(p.transform(input)));
+    }
+    
+    @Test
+    public void testIncludeAndExclude() {
+        BinsonProjection p = new BinsonProjection().include("b").include("g")
+                .exclude("b.d.e").exclude("a.z");
+        // {b={c=3; d={f=6;};}; g=[1, {h=2;}]}
+        assertEquals("401401624014016310031401644014016610064141140167421001401401681002414341", 
+                Hex.create(p.transform(input)));
+    }
+}
@@ -0,0 +1,129 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.Test;
+
+public class BinsonRingTest {
+    @Test
+    public void testCommitAbortAndWrap() throws IOException {
+        BinsonRing ring = new BinsonRing(64, BinsonRing.Policy.BLOCK);
+        BinsonRing.Producer p = ring.newProducer();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel ch = Channels.newChannel(out);
+        
+        for (int i = 0; i < 20; i++) {
+            BinsonLight.Sizer sizer = new BinsonLight.Sizer().begin().name("i").integer(i).end();
+            if (i % 3 == 1) {
+                p.claim(20).begin().name("i").integer(i).end();   // claimed more than needed
+                p.commit();
+            } else if (i % 3 == 2) {
+                p.claim((int) sizer.size()).begin();
+                p.abort();
+            } else {
+                p.claim((int) sizer.size()).begin().name("i").integer(i).end();
+                p.commit();
+            }
+            ring.drain(ch);
+        }
+        assertTrue(ring.isEmpty());
+        
+        StringBuilder sb = new StringBuilder();
+        byte[] bytes = out.toByteArray();
+        int offset = 0;
+        while (offset < bytes.length) {
+            BinsonLight.Parser parser = new BinsonLight.Parser(bytes, offset);
+            parser.field("i");
+            sb.append(parser.getInteger()).append(' ');
+            parser.nextField();
+            offset = parser.getOffset();
+        }
+        assertEquals("0 1 3 4 6 7 9 10 12 13 15 16 18 19 ", sb.toString());
+    }
+    
+    @Test
+    public void testDrop() throws IOException {
+        BinsonRing ring = new BinsonRing(32, BinsonRing.Policy.DROP);
+        BinsonRing.Producer p = ring.newProducer();
+        
+        p.claim(16).raw(new byte[16], 0, 16);
+        p.commit();
+        p.claim(16);
+        p.abort();
+        assertNull(p.claim(8));
+        assertEquals(1, ring.dropped());
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, ring.drain(Channels.newChannel(out)));
+        assertEquals(16, out.size());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testOverflow() throws IOException {
+        BinsonRing ring = new BinsonRing(64, BinsonRing.Policy.BLOCK);
+        ring.newProducer().claim(2).begin().name("a");
+    }
+    
+    @Test
+    public void testManyProducers() throws Exception {
+        final BinsonRing ring = new BinsonRing(1024, BinsonRing.Policy.BLOCK);
+        final int threads = 4, perThread = 20000;
+        Thread[] producers = new Thread[threads];
+        
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            producers[t] = new Thread() {
+                public void run() {
+                    BinsonRing.Producer p = ring.newProducer();
+                    BinsonLight.Sizer sizer = new BinsonLight.Sizer();
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            sizer.reset().begin().name("i").integer(i).name("t").integer(id).end();
+                            p.claim((int) sizer.size()).begin().name("i").integer(i).name("t").integer(id).end();
+                            p.commit();
+                        }
+                    } catch (IOException e) {
+                        throw new Error(e);
+                    }
+                }
+            };
+            producers[t].start();
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel ch = Channels.newChannel(out);
+        int count = 0;
+        while (count < threads * perThread) {
+            count += ring.drain(ch);
+        }
+        for (int t = 0; t < threads; t++) {
+            producers[t].join();
+        }
+        
+        long[] next = new long[threads];
+        byte[] bytes = out.toByteArray();
+        int offset = 0;
+        while (offset < bytes.length) {
+            BinsonLight.Parser parser = new BinsonLight.Parser(bytes, offset);
+            parser.field("i");
+            long i = parser.getInteger();
+            parser.field("t");
+            int t = (int) parser.getInteger();
+            assertEquals(next[t], i);
+            next[t]++;
+            parser.nextField();
+            offset = parser.getOffset();
+        }
+        
+        for (int t = 0; t < threads; t++) {
+            assertEquals(perThread, next[t]);
+        }
+    }
+}
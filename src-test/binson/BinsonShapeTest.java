@@ -0,0 +1,135 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BinsonShapeTest {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinsonLight.Writer w = new BinsonLight.Writer(out);
+    
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        BinsonShape shape = new BinsonShape("type", "qty", "obj");
+        
+        for (int i = 0; i < 3; i++) {
+            w.begin()
+                .name("a").string("" + i)
+                .name("obj").begin().name("x").beginArray().integer(i).endArray().end()
+                .name("qty").integer(i * 1000)
+                .name("s").string("x")
+                .name("type").string("trade")
+                .name("z").integer(1)
+                .end().flush();
+            byte[] m = output();
+            assertTrue(shape.read(m, 0));
+            assertEquals("trade", shape.getString(0).toString());
+            assertEquals(i * 1000, shape.getInteger(1));
+            assertEquals(BinsonLight.ValueType.OBJECT, shape.getType(2));
+            
+            BinsonLight.BytesValue raw = new BinsonLight.BytesValue();
+            shape.getRawValue(2, raw);
+            BinsonLight.Parser p = new BinsonLight.Parser(raw.buffer, raw.offset);
+            p.field("x");
+            assertEquals(BinsonLight.ValueType.ARRAY, p.getType());
+        }
+        assertEquals(2, shape.hits());
+        assertEquals(1, shape.misses());
+        
+        // Another layout, learned on the first miss.
+        w.begin().name("obj").bool(true).name("qty").integer(-5).name("type").string("quote").end().flush();
+        byte[] other = output();
+        assertTrue(shape.read(other, 0));
+        assertEquals("quote", shape.getString(0).toString());
+        assertEquals(-5, shape.getInteger(1));
+        assertTrue(shape.getBoolean(2));
+        assertTrue(shape.read(other, 0));
+        assertEquals(3, shape.hits());
+        assertEquals(2, shape.misses());
+        
+        shape.resetStatistics();
+        assertEquals(0, shape.hits());
+    }
+    
+    @Test
+    public void testSameNamesOtherPositions() throws IOException {
+        BinsonShape shape = new BinsonShape("b");
+        w.begin().name("a").integer(1).name("b").doubl(2.5).end().flush();
+        assertTrue(shape.read(output(), 0));
+        assertEquals(2.5, shape.getDouble(0), 0.0);
+        
+        // Value of "a" is longer, so "b" is at another offset; still a hit.
+        w.begin().name("a").string("longer value").name("b").doubl(3.5).end().flush();
+        assertTrue(shape.read(output(), 0));
+        assertEquals(3.5, shape.getDouble(0), 0.0);
+        assertEquals(1, shape.hits());
+        
+        // A string value that contains the encoded name "b" must not be mistaken for it.
+        // {aa="\u0014\u0001b";b=4.5}
+        assertTrue(shape.read(Hex.toBytes("4014026161140314016214016246000000000000124041"), 0));
+        assertEquals(4.5, shape.getDouble(0), 0.0);
+        assertEquals(2, shape.misses());
+    }
+    
+    @Test
+    public void testMissingField() {
+        BinsonShape shape = new BinsonShape("a", "c");
+        // {a=1;b=2}
+        assertFalse(shape.read(Hex.toBytes("401401611001140162100241"), 0));
+        assertTrue(shape.has(0));
+        assertFalse(shape.has(1));
+        assertEquals(1, shape.getInteger(0));
+        
+        // {a=1;c=2}
+        byte[] bytes = Hex.toBytes("401401611001140163100241");
+        assertTrue(shape.read(bytes, 0));
+        assertTrue(shape.read(bytes, 0));
+        assertEquals(1, shape.hits());
+    }
+    
+    @Test(expected = BinsonLight.FormatException.class)
+    public void testWrongType() {
+        BinsonShape shape = new BinsonShape("a");
+        shape.read(Hex.toBytes("40140161100141"), 0);
+        shape.getString(0);
+    }
+    
+    @Test
+    public void testTruncated() {
+        // {a=1;b="xy";c=[1.5];d=2}
+        byte[] full = Hex.toBytes("401401611001140162140278791401634246000000000000f83f43140164100241");
+        BinsonShape cached = new BinsonShape("a", "c", "d");
+        assertTrue(cached.read(full, 0));
+        
+        for (int size = 0; size < full.length; size++) {
+            byte[] bytes = new byte[size];
+            System.arraycopy(full, 0, bytes, 0, size);
+            BinsonShape[] shapes = {new BinsonShape("a", "c", "d"), cached};
+            
+            for (BinsonShape shape : shapes) {
+                try {
+                    if (shape.read(bytes, 0)) {
+                        shape.getInteger(0);
+                        shape.getRawValue(1, new BinsonLight.BytesValue());
+                        shape.getInteger(2);
+                        // Only the END byte is missing, it is not read.
+                        assertEquals(full.length - 1, size);
+                    }
+                } catch (BinsonLight.FormatException e) {
+                    // expected
+                }
+            }
+        }
+    }
+    
+    private byte[] output() {
+        byte[] bytes = out.toByteArray();
+        out.reset();
+        return bytes;
+    }
+}
@@ -0,0 +1,145 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import binson.BinsonLight.ValueType;
+
+public class BinsonStreamParserTest {
+    @Test
+    public void testNested() throws IOException {
+        // {a=1; b={c=3;}; d=4}
+        // 40140161100114016240140163100341140164100441
+        
+        BinsonStreamParser p = parser(Hex.toBytes("40140161100114016240140163100341140164100441"), 16);
+        p.field("b");
+        p.goIntoObject();
+        p.field("c");
+        assertEquals(3, p.getInteger());
+        p.goUpToObject();
+        p.field("d");
+        assertEquals(4, p.getInteger());
+        assertEquals(false, p.nextField());
+    }
+    
+    @Test
+    public void testSkipNested() throws IOException {
+        //  {a=1; b=[10, [100, 101], 20]; c=3}
+        //  40140161100114016242100a421064106543101443140163100341
+        
+        BinsonStreamParser p = parser(Hex.toBytes("40140161100114016242100a421064106543101443140163100341"), 16);
+        p.field("c");
+        assertEquals(3, p.getInteger());
+        
+        p = parser(Hex.toBytes("40140161100114016242100a421064106543101443140163100341"), 16);
+        p.field("b");
+        p.goIntoArray();
+        assertEquals(true, p.nextArrayValue());
+        assertEquals(10, p.getInteger());
+        assertEquals(true, p.nextArrayValue());
+        assertEquals(ValueType.ARRAY, p.getType());
+        assertEquals(true, p.nextArrayValue());
+        assertEquals(20, p.getInteger());
+        p.goUpToObject();
+        p.field("c");
+        assertEquals(3, p.getInteger());
+    }
+    
+    @Test
+    public void testAllTypesOneByteAtATime() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinsonLight.Writer(out).begin()
+            .name("a").bool(true)
+            .name("b").bytes(new byte[] {1, 2, 3})
+            .name("c").doubl(1.25)
+            .name("d").integer(-100000)
+            .name("e").string("hello")
+        .end();
+        
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(out.toByteArray());
+        InputStream slow = new InputStream() {
+            public int read() {
+                return bytes.read();
+            }
+            public int read(byte[] b, int off, int len) {
+                return bytes.read(b, off, Math.min(len, 1));
+            }
+        };
+        
+        BinsonStreamParser p = new BinsonStreamParser(slow, 16);
+        p.field("a");
+        assertEquals(true, p.getBoolean());
+        p.field("b");
+        assertArrayEquals(new byte[] {1, 2, 3}, p.getBytes().toByteArray());
+        p.field("c");
+        assertEquals(1.25, p.getDouble(), 0.0);
+        p.field("d");
+        assertEquals(-100000, p.getInteger());
+        p.field("e");
+        assertEquals("hello", p.getString().toString());
+        assertEquals(false, p.nextField());
+    }
+    
+    @Test
+    public void testLargeValue() throws IOException {
+        byte[] big = new byte[100000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) (i * 31);
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinsonLight.Writer(out).begin()
+            .name("a").bytes(big)
+            .name("b").bytes(big)
+            .name("c").beginArray().bytes(big).string("x").endArray()
+            .name("d").integer(4)
+        .end();
+        byte[] bytes = out.toByteArray();
+        
+        BinsonStreamParser p = new BinsonStreamParser(Channels.newChannel(new ByteArrayInputStream(bytes)), 64);
+        p.field("a");
+        assertEquals(false, p.isValueLoaded());
+        assertEquals(big.length, p.getValueSize());
+        
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1000];
+        int n;
+        while ((n = p.readValue(chunk, 0, chunk.length)) != -1) {
+            value.write(chunk, 0, n);
+        }
+        assertArrayEquals(big, value.toByteArray());
+        
+        // b is skipped unread, c is skipped as a whole.
+        p.field("d");
+        assertEquals(4, p.getInteger());
+        
+        p = parser(bytes, 64);
+        p.field("b");
+        p.readValue(chunk, 0, 10);
+        p.field("c");
+        p.goIntoArray();
+        p.nextArrayValue();
+        assertEquals(false, p.isValueLoaded());
+        p.nextArrayValue();
+        assertEquals("x", p.getString().toString());
+        assertEquals(false, p.nextArrayValue());
+    }
+    
+    @Test(expected = BinsonLight.FormatException.class)
+    public void testTruncated() throws IOException {
+        BinsonStreamParser p = parser(Hex.toBytes("40140161100114016240140163"), 16);
+        p.field("d");
+    }
+    
+    private static BinsonStreamParser parser(byte[] bytes, int windowSize) {
+        return new BinsonStreamParser(new ByteArrayInputStream(bytes), windowSize);
+    }
+}
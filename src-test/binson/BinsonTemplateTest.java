@@ -0,0 +1,130 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BinsonTemplateTest {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final BinsonLight.Writer expected = new BinsonLight.Writer(out);
+    
+    @Test
+    public void testSlots() throws IOException {
+        BinsonTemplate.Builder b = new BinsonTemplate.Builder();
+        BinsonLight.Writer w = new BinsonLight.Writer(b);
+        w.begin().name("a");
+        int a = b.integerSlot();
+        w.name("b");
+        int bb = b.booleanSlot();
+        w.name("c").string("const").name("d");
+        int d = b.doubleSlot();
+        w.end();
+        BinsonTemplate t = b.build();
+        
+        assertEquals(3, t.slots());
+        assertEquals(BinsonLight.ValueType.DOUBLE, t.slotType(d));
+        
+        BinsonTemplate.Message m = t.newMessage();
+        expected.begin().name("a").integer(0).name("b").bool(false)
+            .name("c").string("const").name("d").doubl(0.0).end();
+        String empty = expected();
+        assertEquals(empty, Hex.create(m.toBytes()));
+        
+        m.setInteger(a, -123456789012L).setBoolean(bb, true).setDouble(d, 2.5);
+        expected.begin().name("a").integer(-123456789012L).name("b").bool(true)
+            .name("c").string("const").name("d").doubl(2.5).end();
+        assertEquals(expected(), Hex.create(m.toBytes()));
+        
+        m.reset();
+        assertEquals(empty, Hex.create(m.toBytes()));
+    }
+    
+    @Test
+    public void testStringResize() throws IOException {
+        BinsonTemplate.Builder b = new BinsonTemplate.Builder();
+        BinsonLight.Writer w = new BinsonLight.Writer(b);
+        w.begin().name("a");
+        int a = b.stringSlot();
+        w.name("b");
+        int bb = b.stringSlot();
+        w.name("c");
+        int c = b.integerSlot();
+        w.end();
+        
+        BinsonTemplate.Message m = b.build().newMessage();
+        m.setString(a, "x").setString(bb, "yy").setInteger(c, 1);
+        expected.begin().name("a").string("x").name("b").string("yy").name("c").integer(1).end();
+        assertEquals(expected(), Hex.create(m.toBytes()));
+        
+        String big = new String(new char[300]).replace('\0', 'z');
+        m.setString(a, big).setInteger(c, 2);
+        expected.begin().name("a").string(big).name("b").string("yy").name("c").integer(2).end();
+        assertEquals(expected(), Hex.create(m.toBytes()));
+        
+        m.setString(a, "").setString(bb, "åäö").setInteger(c, 3);
+        expected.begin().name("a").string("").name("b").string("åäö").name("c").integer(3).end();
+        assertEquals(expected(), Hex.create(m.toBytes()));
+        
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        m.writeTo(written);
+        assertEquals(m.size(), written.size());
+    }
+    
+    @Test
+    public void testSameBytesAsWriter() throws IOException {
+        BinsonTemplate.Builder b = new BinsonTemplate.Builder();
+        BinsonLight.Writer w = new BinsonLight.Writer(b);
+        w.begin().name("a");
+        int a = b.integerSlot();
+        w.name("b");
+        int bb = b.integerSlot();
+        w.name("c");
+        int c = b.stringSlot();
+        w.end();
+        BinsonTemplate.Message m = b.build().newMessage();
+        
+        long[] values = {0, -128, 127, 128, -32769, 1L << 31, Long.MIN_VALUE, 5};
+        for (int i = 0; i < values.length; i++) {
+            m.setInteger(a, values[i]).setInteger(bb, values[values.length - 1 - i]).setString(c, "s" + i);
+            
+            expected.begin().name("a").integer(values[i])
+                .name("b").integer(values[values.length - 1 - i]).name("c").string("s" + i).end();
+            assertEquals(expected(), Hex.create(m.toBytes()));
+        }
+    }
+    
+    @Test
+    public void testRawNames() throws IOException {
+        // Pre-encoded names "a" and "b".
+        byte[] names = Hex.toBytes("140161140162");
+        BinsonTemplate.Builder b = new BinsonTemplate.Builder();
+        BinsonLight.Writer w = new BinsonLight.Writer(b);
+        w.begin().raw(names, 0, 3);
+        int a = b.integerSlot();
+        w.raw(names, 3, 3);
+        int bb = b.booleanSlot();
+        w.end();
+        
+        // {a=7;b=true;}
+        BinsonTemplate.Message m = b.build().newMessage().setInteger(a, 7).setBoolean(bb, true);
+        assertEquals("4014016110071401624441", Hex.create(m.toBytes()));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongSlotType() {
+        BinsonTemplate.Builder b = new BinsonTemplate.Builder();
+        int s = b.stringSlot();
+        b.build().newMessage().setInteger(s, 1);
+    }
+    
+    /** Returns the bytes written with 'expected' since the last call, as hex. */
+    private String expected() throws IOException {
+        expected.flush();
+        String hex = Hex.create(out.toByteArray());
+        out.reset();
+        return hex;
+    }
+}
@@ -1,6 +1,10 @@
 package binson;
 
 import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 import org.junit.Test;
 import binson.BinsonLight;
 import binson.BinsonLight.ValueType;
@@ -120,4 +124,132 @@ public class ParseArrayTest {
 		assertEquals(true, gotValue);
 		assertEquals(20, p.getInteger());		
 	}
+
+	@Test
+	public void testNextIntegers() throws IOException {
+		long[] values = new long[300];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (i % 2 == 0 ? 1L : -1L) << (i % 64);
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinsonLight.Writer w = new BinsonLight.Writer(out);
+		w.begin().name("a").integers(values, 0, values.length).name("b").integer(7).end();
+		
+		BinsonLight.Parser p = new BinsonLight.Parser(out.toByteArray());
+		p.field("a");
+		p.goIntoArray();
+		
+		long[] result = new long[values.length + 10];
+		int count = p.nextIntegers(result, 10, 100);
+		assertEquals(100, count);
+		count += p.nextIntegers(result, 10 + count, 1000);
+		assertEquals(values.length, count);
+		assertEquals(0, p.nextIntegers(result, 0, 1));
+		assertEquals(false, p.nextArrayValue());
+		
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], result[10 + i]);
+		}
+		
+		p.goUpToObject();
+		p.field("b");
+		assertEquals(7, p.getInteger());
+	}
+	
+	@Test
+	public void testNextIntegersMixed() {
+		// {a=1; b=[10, 20, "hello", 30]; c=3}
+		// 40140161100114016242100a10141405 68656c6c6f 101e43140163100341
+		
+		BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes(
+				"40140161100114016242100a10141405" + "68656c6c6f" + "101e43140163100341"));
+		p.field("b");
+		p.goIntoArray();
+		
+		long[] result = new long[10];
+		assertEquals(2, p.nextIntegers(result, 0, 10));
+		assertEquals(10, result[0]);
+		assertEquals(20, result[1]);
+		
+		assertEquals(true, p.nextArrayValue());
+		assertEquals(ValueType.STRING, p.getType());
+		assertEquals("hello", p.getString().toString());
+		
+		assertEquals(1, p.nextIntegers(result, 0, 10));
+		assertEquals(30, result[0]);
+		
+		p.goUpToObject();
+		p.field("c");
+		assertEquals(3, p.getInteger());
+	}
+	
+	@Test
+	public void testNextIntegersIntRange() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinsonLight.Writer w = new BinsonLight.Writer(out);
+		w.begin().name("a").beginArray().integer(-5).integer(Integer.MAX_VALUE)
+			.integer(1L + Integer.MAX_VALUE).endArray().end();
+		
+		BinsonLight.Parser p = new BinsonLight.Parser(out.toByteArray());
+		p.field("a");
+		p.goIntoArray();
+		
+		int[] result = new int[3];
+		assertEquals(2, p.nextIntegers(result, 0, 3));
+		assertEquals(-5, result[0]);
+		assertEquals(Integer.MAX_VALUE, result[1]);
+		assertEquals(true, p.nextArrayValue());
+		assertEquals(1L + Integer.MAX_VALUE, p.getInteger());
+	}
+	
+	@Test
+	public void testNextDoubles() throws IOException {
+		double[] values = new double[200];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i * 0.5 - 17;
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinsonLight.Writer w = new BinsonLight.Writer(out);
+		w.begin().name("a").doubles(values, 0, values.length).end();
+		
+		BinsonLight.Parser p = new BinsonLight.Parser(out.toByteArray());
+		p.field("a");
+		p.goIntoArray();
+		
+		double[] result = new double[values.length];
+		assertEquals(values.length, p.nextDoubles(result, 0, result.length));
+		assertEquals(false, p.nextArrayValue());
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], result[i], 0.0);
+		}
+	}
+	
+	@Test
+	public void testRawValueAfterBulkRead() {
+		// {a=[10, 20, 1.5, 2.5, "x"]}
+		byte[] bytes = Hex.toBytes("4014016142100a101446000000000000f83f4600000000000004401401784341");
+		BinsonLight.BytesValue raw = new BinsonLight.BytesValue();
+		
+		BinsonLight.Parser p = new BinsonLight.Parser(bytes);
+		p.field("a");
+		p.goIntoArray();
+		assertEquals(2, p.nextIntegers(new long[10], 0, 10));
+		p.getRawValue(raw);
+		assertEquals("1014", Hex.create(raw.buffer, raw.offset, raw.size));
+		
+		assertEquals(2, p.nextDoubles(new double[10], 0, 10));
+		p.getRawValue(raw);
+		assertEquals("460000000000000440", Hex.create(raw.buffer, raw.offset, raw.size));
+		
+		p = new BinsonLight.Parser(bytes);
+		p.field("a");
+		p.goIntoArray();
+		assertEquals(2, p.nextIntegers(new int[10], 0, 10));
+		p.getRawValue(raw);
+		assertEquals("1014", Hex.create(raw.buffer, raw.offset, raw.size));
+		assertEquals(true, p.nextArrayValue());
+		assertEquals(1.5, p.getDouble(), 0.0);
+	}
 }
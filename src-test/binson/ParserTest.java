@@ -2,6 +2,10 @@ package binson;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 import org.junit.Test;
 import binson.BinsonLight;
@@ -235,4 +239,524 @@ public class ParserTest {
 	    assertTrue(ex.getMessage().contains("extends beyond"));
 	    assertTrue("contains100", ex.getMessage().contains("100"));
     }
+    
+    @Test
+    public void testReset() {
+        // {cid=4;} = 0x401403636964100441
+        // {a=1; b={c=3;}; d=4} = 40140161100114016240140163100341140164100441
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("401403636964100441"));
+        p.field("cid");
+        assertEquals(4, p.getInteger());
+        assertEquals(false, p.nextField());
+        
+        p.reset(Hex.toBytes("40140161100114016240140163100341140164100441"), 0);
+        p.field("b");
+        p.goIntoObject();
+        p.field("c");
+        assertEquals(3, p.getInteger());
+        p.goUpToObject();
+        p.field("d");
+        assertEquals(4, p.getInteger());
+    }
+    
+    @Test
+    public void testRawValue() {
+        // {a=1; b={c=3;}; d=4}
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161100114016240140163100341140164100441"));
+        BinsonLight.BytesValue raw = new BinsonLight.BytesValue();
+        
+        p.field("a");
+        p.getRawValue(raw);
+        assertEquals("1001", Hex.create(raw.buffer, raw.offset, raw.size));
+        
+        p.field("b");
+        p.getRawValue(raw);
+        assertEquals("40140163100341", Hex.create(raw.buffer, raw.offset, raw.size));
+        assertEquals(ValueType.OBJECT, p.getType());
+        assertEquals(true, p.nameEquals("b"));
+        
+        p.field("d");
+        assertEquals(4, p.getInteger());
+        p.getRawField(raw);
+        assertEquals("1401641004", Hex.create(raw.buffer, raw.offset, raw.size));
+        assertEquals(false, p.nextField());
+    }
+    
+    @Test
+    public void testRawValueInArray() {
+        //  {a=1; b=[10, [100, 101], 20]; c=3}
+        //  40140161100114016242100a421064106543101443140163100341
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161100114016242100a421064106543101443140163100341"));
+        BinsonLight.BytesValue raw = new BinsonLight.BytesValue();
+        
+        p.field("b");
+        p.goIntoArray();
+        p.nextArrayValue();
+        p.nextArrayValue();
+        p.getRawValue(raw);
+        assertEquals("421064106543", Hex.create(raw.buffer, raw.offset, raw.size));
+        
+        p.nextArrayValue();
+        assertEquals(20, p.getInteger());
+        assertEquals(false, p.nextArrayValue());
+        p.goUpToObject();
+        
+        p.field("c");
+        p.getRawValue(raw);
+        assertEquals("1003", Hex.create(raw.buffer, raw.offset, raw.size));
+    }
+    
+    @Test
+    public void testRawValueCopy() throws IOException {
+        // Forwards field b verbatim to a new object.
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161100114016240140163100341140164100441"));
+        BinsonLight.BytesValue raw = new BinsonLight.BytesValue();
+        p.field("b");
+        p.getRawValue(raw);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        w.begin().name("b").raw(raw.buffer, raw.offset, raw.size).end();
+        assertEquals("401401624014016310034141", Hex.create(out.toByteArray()));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testRawValueAfterGoInto() {
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161100114016240140163100341140164100441"));
+        p.field("b");
+        p.goIntoObject();
+        p.getRawValue(new BinsonLight.BytesValue());
+    }
+    
+    @Test
+    public void testRawValueAfterReset() {
+        // {a=1; b={c=3;}; d=4}, then {cid=4;}
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161100114016240140163100341140164100441"));
+        BinsonLight.BytesValue raw = new BinsonLight.BytesValue();
+        p.field("d");
+        p.reset(Hex.toBytes("401403636964100441"), 0);
+        
+        try {
+            p.getRawValue(raw);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            p.getRawField(raw);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        
+        p.field("cid");
+        p.getRawField(raw);
+        assertEquals("14036369641004", Hex.create(raw.buffer, raw.offset, raw.size));
+    }
+    
+    @Test
+    public void testConcatenatedObjects() {
+        // {cid=4;} {} {a=1; b={c=3;}; d=4}
+        byte[] buffer = Hex.toBytes("401403636964100441" + "4041" 
+                + "40140161100114016240140163100341140164100441");
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(buffer);
+        int count = 0;
+        long sum = 0;
+        
+        while (p.getOffset() < buffer.length) {
+            while (p.nextField()) {
+                if (p.getType() == ValueType.INTEGER) {
+                    sum += p.getInteger();
+                }
+            }
+            p.reset(buffer, p.getOffset());
+            count++;
+        }
+        
+        assertEquals(3, count);
+        assertEquals(4 + 1 + 4, sum);
+    }
+    
+    @Test
+    public void testSkipDeeplyNested() throws IOException {
+        // {a=[[[...[1]...]]]; b=2} with 200000 levels of arrays.
+        int depth = 200000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinsonLight.Writer w = new BinsonLight.Writer(out);
+        w.begin().name("a");
+        for (int i = 0; i < depth; i++) {
+            w.beginArray();
+        }
+        w.integer(1).string("x").bytes(new byte[3]).doubl(1.0).bool(true);
+        for (int i = 0; i < depth; i++) {
+            w.endArray();
+        }
+        w.name("b").integer(2).end();
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(out.toByteArray());
+        p.field("b");
+        assertEquals(2, p.getInteger());
+        
+        p = new BinsonLight.Parser(out.toByteArray());
+        p.field("a");
+        p.goIntoArray();
+        p.nextArrayValue();
+        p.goUpToObject();
+        p.field("b");
+        assertEquals(2, p.getInteger());
+    }
+    
+    @Test
+    public void testGoUpFromUnenteredObject() {
+        // {a={b={c=3;};}; d=4}
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161401401624014016310034141140164100441"));
+        p.field("a");
+        p.goIntoObject();
+        p.field("b");
+        assertEquals(ValueType.OBJECT, p.getType());
+        p.goUpToObject();
+        p.field("d");
+        assertEquals(4, p.getInteger());
+    }
+    
+    @Test
+    public void testTryField() {
+        // {a=1; c=3}
+        byte[] buffer = Hex.toBytes("401401611001140163100341");
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(buffer);
+        assertTrue(p.tryField("c"));
+        assertEquals(3, p.getInteger());
+        
+        p = new BinsonLight.Parser(buffer);
+        assertEquals(false, p.tryField("b"));
+        assertTrue(p.tryField("c"));
+        assertEquals(3, p.getInteger());
+        assertEquals(false, p.tryField("d"));
+        assertEquals(false, p.tryField("e"));
+        assertEquals(false, p.nextField());
+    }
+    
+    @Test
+    public void testFieldWithConstantNames() {
+        // {a={x=1}; b=2; d=4}, fields looked up with pre-encoded names.
+        BinsonLight.StringValue a = new BinsonLight.StringValue("a");
+        BinsonLight.StringValue c = new BinsonLight.StringValue("c");
+        byte[] d = {'d'};
+        byte[] buffer = Hex.toBytes("40140161401401781001411401621002140164100441");
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(buffer);
+        assertEquals(false, p.tryField(c));
+        p.field(d);
+        assertEquals(4, p.getInteger());
+        
+        p = new BinsonLight.Parser(buffer);
+        p.field(a);
+        assertEquals(ValueType.OBJECT, p.getType());
+        assertEquals(false, p.tryField(c));
+        p.field("d");
+        assertEquals(4, p.getInteger());
+        
+        try {
+            new BinsonLight.Parser(buffer).field(c);
+            fail("expected FormatException");
+        } catch (BinsonLight.FormatException e) {
+            assertEquals("no field named 'c'", e.getMessage());
+        }
+    }
+    
+    @Test
+    public void testFormatExceptionWithoutStackTrace() {
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("40140161100141"));
+        p.setStackTraces(false);
+        
+        try {
+            p.field("b");
+            fail("expected FormatException");
+        } catch (BinsonLight.FormatException e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+        
+        assertEquals(0, new BinsonLight.FormatException("x", false).getStackTrace().length);
+        assertTrue(new BinsonLight.FormatException("x").getStackTrace().length > 0);
+    }
+    
+    @Test
+    public void testMarkAndReset() {
+        // {a=1; b={c=[10, {d="x"}]; e=2}; f=3}
+        byte[] buffer = Hex.toBytes("4014016110011401624014016342100a401401641401784143140165100241140166100341");
+        BinsonLight.Parser p = new BinsonLight.Parser(buffer);
+        BinsonLight.Parser.Mark start = p.mark();
+        
+        p.field("f");
+        assertEquals(3, p.getInteger());
+        p.reset(start);
+        p.field("a");
+        assertEquals(1, p.getInteger());
+        
+        BinsonLight.Parser.Mark afterA = p.mark(new BinsonLight.Parser.Mark());
+        p.field("b");
+        p.goIntoObject();
+        p.field("c");
+        p.goIntoArray();
+        p.nextArrayValue();
+        assertEquals(10, p.getInteger());
+        BinsonLight.Parser.Mark in = p.mark();
+        assertEquals(2, p.getDepth());
+        
+        p.goUp(2);
+        assertEquals(0, p.getDepth());
+        p.field("f");
+        assertEquals(3, p.getInteger());
+        
+        p.reset(in);
+        assertEquals(10, p.getInteger());
+        assertEquals(2, p.getDepth());
+        p.nextArrayValue();
+        p.goIntoObject();
+        p.field("d");
+        assertEquals("x", p.getString().toString());
+        assertEquals(3, p.getDepth());
+        p.goUp(2);
+        p.field("e");
+        assertEquals(2, p.getInteger());
+        
+        p.reset(afterA);
+        assertEquals(1, p.getInteger());
+        assertEquals("a", p.getName().toString());
+        p.field("b");
+        assertEquals(ValueType.OBJECT, p.getType());
+    }
+    
+    @Test
+    public void testGoUpFromArrayInArray() {
+        // {a=[[[1, 2], 3], 4]; b=5}
+        byte[] buffer = Hex.toBytes("401401614242421001100243100343100443140162100541");
+        BinsonLight.Parser p = new BinsonLight.Parser(buffer);
+        p.field("a");
+        p.goIntoArray();
+        p.nextArrayValue();
+        p.goIntoArray();
+        p.nextArrayValue();
+        p.goIntoArray();
+        p.nextArrayValue();
+        assertEquals(1, p.getInteger());
+        
+        p.goUp(2);
+        assertTrue(p.nextArrayValue());
+        assertEquals(4, p.getInteger());
+        p.goUp(1);
+        p.field("b");
+        assertEquals(5, p.getInteger());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testGoUpTooFar() {
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("4041"));
+        p.goUp(1);
+    }
+    
+    /** One value of each type byte width, as hex. */
+    private static final String[] VALUES = {
+        "10ff",                 // -1, INTEGER1
+        "110001",               // 256, INTEGER2
+        "1200000001",           // 16777216, INTEGER4
+        "130000000000000080",   // Long.MIN_VALUE, INTEGER8
+        "140178",               // "x", STRING1
+        "15010079",             // "y", STRING2
+        "16010000007a",         // "z", STRING4
+        "180101",               // 0x01, BYTES1
+        "19010002",             // 0x02, BYTES2
+        "1a0100000003",         // 0x03, BYTES4
+        "46000000000000f83f",   // 1.5
+        "44",                   // true
+        "45"                    // false
+    };
+    
+    @Test
+    public void testTypeByteWidths() {
+        // {a=-1; b=256; c=16777216; d=Long.MIN_VALUE; e="x"; f="y"; g="z"; 
+        //  h=0x01; i=0x02; j=0x03; k=1.5; l=true; m=false}
+        StringBuilder hex = new StringBuilder("40");
+        for (int i = 0; i < VALUES.length; i++) {
+            hex.append("1401").append(Integer.toHexString('a' + i)).append(VALUES[i]);
+        }
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes(hex.append("41").toString()));
+        
+        p.field("a");
+        assertEquals(-1, p.getInteger());
+        p.field("b");
+        assertEquals(256, p.getInteger());
+        p.field("c");
+        assertEquals(16777216, p.getInteger());
+        p.field("d");
+        assertEquals(Long.MIN_VALUE, p.getInteger());
+        p.field("e");
+        assertEquals("x", p.getString().toString());
+        p.field("f");
+        assertEquals("y", p.getString().toString());
+        p.field("g");
+        assertEquals("z", p.getString().toString());
+        p.field("h");
+        assertEquals("01", Hex.create(p.getBytes().toByteArray()));
+        p.field("i");
+        assertEquals("02", Hex.create(p.getBytes().toByteArray()));
+        p.field("j");
+        assertEquals("03", Hex.create(p.getBytes().toByteArray()));
+        p.field("k");
+        assertEquals(1.5, p.getDouble(), 0.0);
+        p.field("l");
+        assertEquals(true, p.getBoolean());
+        p.field("m");
+        assertEquals(ValueType.BOOLEAN, p.getType());
+        assertEquals(false, p.getBoolean());
+        assertEquals(false, p.nextField());
+    }
+    
+    @Test
+    public void testSkipTypeByteWidths() {
+        // {a=[-1, 256, ..., true, false]; b=5}, the array is skipped.
+        StringBuilder hex = new StringBuilder("4014016142");
+        for (int i = 0; i < VALUES.length; i++) {
+            hex.append(VALUES[i]);
+        }
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes(hex.append("43140162100541").toString()));
+        
+        p.field("b");
+        assertEquals(5, p.getInteger());
+    }
+    
+    @Test
+    public void testInvalidTypeBytes() {
+        for (int b = 0; b < 256; b++) {
+            boolean valid = (b >= 0x10 && b <= 0x16) || (b >= 0x18 && b <= 0x1a) 
+                    || b == 0x40 || b == 0x42 || (b >= 0x44 && b <= 0x46);
+            if (valid) {
+                continue;
+            }
+            String typeByte = Hex.create(new byte[] {(byte) b});
+            
+            // {a=?}
+            assertFormatException(Hex.toBytes("40140161" + typeByte + "000000000000000041"), "a");
+            
+            // {a=[?]; b=5}, found when the array is skipped. End markers are not validated.
+            if (b != 0x41 && b != 0x43) {
+                assertFormatException(Hex.toBytes("4014016142" + typeByte 
+                        + "000000000000000043140162100541"), "b");
+            }
+        }
+    }
+    
+    @Test
+    public void testTruncatedInsideLength() {
+        // {a="..."}, cut inside the 2-byte length.
+        assertFormatException(Hex.toBytes("4014016115"), "a");
+        assertFormatException(Hex.toBytes("401401611501"), "a");
+        
+        // {a=0x..}, cut inside the 4-byte length.
+        assertFormatException(Hex.toBytes("401401611a010000"), "a");
+        
+        // {a=["..."]; b=5}, cut inside the length while the array is skipped.
+        assertFormatException(Hex.toBytes("401401614215"), "b");
+        assertFormatException(Hex.toBytes("40140161421601"), "b");
+        
+        // {a=[1]}, cut inside a fixed-width integer, read in bulk.
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes("401401614212"));
+        p.field("a");
+        p.goIntoArray();
+        try {
+            p.nextIntegers(new long[1], 0, 1);
+            fail("expected FormatException");
+        } catch (BinsonLight.FormatException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testTruncatedAnywhere() {
+        // {a=1; b=[2, "xy", {c=3.5}]; d=0x0102; e=true}
+        byte[] full = Hex.toBytes("4014016110011401624210021402787940140163"
+                + "460000000000000c404143140164180201021401654441");
+        walk(new BinsonLight.Parser(full), false);
+        
+        for (int size = 0; size < full.length; size++) {
+            byte[] bytes = new byte[size];
+            System.arraycopy(full, 0, bytes, 0, size);
+            
+            try {
+                BinsonLight.Parser p = new BinsonLight.Parser(bytes);
+                while (p.nextField()) {
+                    // Skips containers.
+                }
+                fail("expected FormatException, size " + size);
+            } catch (BinsonLight.FormatException e) {
+                // expected
+            }
+            
+            try {
+                walk(new BinsonLight.Parser(bytes), false);
+                fail("expected FormatException, size " + size);
+            } catch (BinsonLight.FormatException e) {
+                // expected
+            }
+        }
+    }
+    
+    @Test
+    public void testSkipDeepNesting() {
+        // {a=[[[...]]]; b=5} and {a={a={...}}; b=5}, 10000 levels deep.
+        int levels = 10000;
+        StringBuilder arrays = new StringBuilder("40140161");
+        StringBuilder objects = new StringBuilder("40140161");
+        for (int i = 0; i < levels; i++) {
+            arrays.append("42");
+            objects.append(i < levels - 1 ? "40140161" : "40");
+        }
+        for (int i = 0; i < levels; i++) {
+            arrays.append("43");
+            objects.append("41");
+        }
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(Hex.toBytes(arrays.append("140162100541").toString()));
+        p.field("b");
+        assertEquals(5, p.getInteger());
+        
+        p = new BinsonLight.Parser(Hex.toBytes(objects.append("140162100541").toString()));
+        p.field("a");
+        p.goIntoObject();
+        p.field("a");
+        p.goUpToObject();
+        p.field("b");
+        assertEquals(5, p.getInteger());
+    }
+    
+    /** Parses the whole object, entering every object and array. */
+    private static void walk(BinsonLight.Parser p, boolean inArray) {
+        while (inArray ? p.nextArrayValue() : p.nextField()) {
+            if (p.getType() == ValueType.OBJECT) {
+                p.goIntoObject();
+                walk(p, false);
+                p.goUp(1);
+            } else if (p.getType() == ValueType.ARRAY) {
+                p.goIntoArray();
+                walk(p, true);
+                p.goUp(1);
+            }
+        }
+    }
+    
+    private static void assertFormatException(byte[] bytes, String name) {
+        try {
+            new BinsonLight.Parser(bytes).field(name);
+            fail("expected FormatException for " + Hex.create(bytes));
+        } catch (BinsonLight.FormatException e) {
+            // expected
+        }
+    }
 }
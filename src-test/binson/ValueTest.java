@@ -0,0 +1,119 @@
+package binson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests StringValue and BytesValue.
+ */
+public class ValueTest {
+    @Test
+    public void testStringEqualsAndHash() {
+        byte[] buffer = Hex.toBytes("00616263616263");
+        BinsonLight.StringValue s1 = new BinsonLight.StringValue();
+        BinsonLight.StringValue s2 = new BinsonLight.StringValue();
+        s1.set(buffer, 1, 3);
+        s2.set(buffer, 4, 3);
+        
+        assertEquals(true, s1.equals(s2));
+        assertEquals(true, s1.equals(new BinsonLight.StringValue("abc")));
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(s1.hash64(), new BinsonLight.StringValue("abc").hash64());
+        
+        s2.set(buffer, 4, 2);
+        assertEquals(false, s1.equals(s2));
+    }
+    
+    @Test
+    public void testBytesAsMapKey() {
+        // {a=1; b={c=3;}; d=4} and {b={c=3;}}; same sub-object b.
+        BinsonLight.Parser p1 = new BinsonLight.Parser(Hex.toBytes("40140161100114016240140163100341140164100441"));
+        BinsonLight.Parser p2 = new BinsonLight.Parser(Hex.toBytes("4014016240140163100341" + "41"));
+        BinsonLight.BytesValue v1 = new BinsonLight.BytesValue();
+        BinsonLight.BytesValue v2 = new BinsonLight.BytesValue();
+        
+        p1.field("b");
+        p1.getRawValue(v1);
+        p2.field("b");
+        p2.getRawValue(v2);
+        
+        assertTrue(v1.buffer != v2.buffer);
+        assertEquals(true, v1.equals(v2));
+        assertEquals(0, v1.compareTo(v2));
+        
+        HashMap<BinsonLight.BytesValue, String> map = new HashMap<BinsonLight.BytesValue, String>();
+        map.put(v1, "b");
+        assertEquals("b", map.get(v2));
+    }
+    
+    @Test
+    public void testHashDistinct() {
+        // All lengths 0..40 and all single-bit changes give distinct hashes.
+        Set<Long> hashes = new HashSet<Long>();
+        byte[] b = new byte[40];
+        int count = 0;
+        
+        for (int len = 0; len <= b.length; len++) {
+            hashes.add(hash(b, len));
+            count++;
+            for (int bit = 0; bit < len * 8; bit++) {
+                b[bit / 8] ^= (byte) (1 << (bit % 8));
+                hashes.add(hash(b, len));
+                b[bit / 8] ^= (byte) (1 << (bit % 8));
+                count++;
+            }
+        }
+        
+        assertEquals(count, hashes.size());
+    }
+    
+    @Test
+    public void testCompare() {
+        BinsonLight.BytesValue a = new BinsonLight.BytesValue();
+        BinsonLight.BytesValue b = new BinsonLight.BytesValue();
+        a.set(new byte[] {1, 2}, 0, 2);
+        b.set(new byte[] {1, 2, 0}, 0, 3);
+        assertTrue(a.compareTo(b) < 0);
+        b.set(new byte[] {(byte) 0x80}, 0, 1);
+        assertTrue(a.compareTo(b) < 0);
+        assertTrue(b.compareTo(a) > 0);
+    }
+    
+    @Test
+    public void testValidUtf8() throws Exception {
+        String[] valid = {"", "abcdefghijklmnopq", "åäö", "0123456789€", "😀 and more ascii text", "\u07ff\u0800\uffff"};
+        for (String text : valid) {
+            assertEquals(text, true, new BinsonLight.StringValue(text).isValidUtf8());
+        }
+        
+        String[] invalid = {
+            "80",               // continuation byte first
+            "c0af",             // overlong '/'
+            "e080af",           // overlong
+            "eda080",           // surrogate U+D800
+            "f4908080",         // above U+10FFFF
+            "f5808080",         // bad lead byte
+            "6162636465666768c3", // truncated after fast path
+            "e282",             // truncated
+            "c328"              // bad continuation
+        };
+        for (String hex : invalid) {
+            BinsonLight.StringValue s = new BinsonLight.StringValue();
+            byte[] bytes = Hex.toBytes("41" + hex + "41");
+            s.set(bytes, 1, bytes.length - 2);
+            assertEquals(hex, false, s.isValidUtf8());
+        }
+    }
+    
+    private static long hash(byte[] b, int len) {
+        BinsonLight.BytesValue v = new BinsonLight.BytesValue();
+        v.set(b, 0, len);
+        return v.hash64();
+    }
+}
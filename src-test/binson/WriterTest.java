@@ -2,9 +2,19 @@ package binson;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -83,6 +93,175 @@ public class WriterTest {
         assertOutput("40140161100114016242100a421064106543101443140163100341");
     }
     
+    @Test
+    public void testReuseWriter() throws IOException {
+        // {a=1.5;} written twice with the same Writer and two streams.
+        
+        w.begin().name("a").doubl(1.5).end().flush();
+        byte[] first = out.toByteArray();
+        
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        w.reset(out2);
+        w.begin().name("a").doubl(1.5).end().flush();
+        
+        assertArrayEquals(first, out2.toByteArray());
+        
+        BinsonLight.Parser p = new BinsonLight.Parser(first);
+        p.field("a");
+        assertEquals(1.5, p.getDouble(), 0.0);
+    }
+    
+    @Test
+    public void testBulkArrays() throws IOException {
+        long[] longs = new long[500];
+        int[] ints = new int[500];
+        double[] doubles = new double[500];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = (long) i * i * i * i * i * (i % 3 - 1);
+            ints[i] = (int) longs[i];
+            doubles[i] = i / 3.0;
+        }
+        
+        w.begin().name("a").integers(longs, 3, 490)
+            .name("b").integers(ints, 0, ints.length)
+            .name("c").doubles(doubles, 0, doubles.length)
+            .name("d").integers(longs, 0, 0)
+        .end().flush();
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinsonLight.Writer w2 = new BinsonLight.Writer(expected);
+        w2.begin().name("a").beginArray();
+        for (int i = 3; i < 493; i++) {
+            w2.integer(longs[i]);
+        }
+        w2.endArray().name("b").beginArray();
+        for (int i = 0; i < ints.length; i++) {
+            w2.integer(ints[i]);
+        }
+        w2.endArray().name("c").beginArray();
+        for (int i = 0; i < doubles.length; i++) {
+            w2.doubl(doubles[i]);
+        }
+        w2.endArray().name("d").beginArray().endArray().end();
+        
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+    
+    @Test
+    public void testBytesFromBuffersAndStreams() throws IOException {
+        byte[] blob = new byte[5000];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) (i * 7);
+        }
+        
+        ByteBuffer direct = ByteBuffer.allocateDirect(blob.length);
+        direct.put(blob).flip();
+        ByteBuffer heap = ByteBuffer.wrap(blob, 100, 3000).slice();
+        
+        w.begin()
+            .name("a").bytes(direct)
+            .name("b").bytes(heap)
+            .name("c").bytes(new ByteArrayInputStream(blob), blob.length)
+        .end();
+        
+        assertEquals(0, direct.remaining());
+        assertEquals(0, heap.remaining());
+        
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new BinsonLight.Writer(expected).begin()
+            .name("a").bytes(blob)
+            .name("b").bytes(Arrays.copyOfRange(blob, 100, 3100))
+            .name("c").bytes(blob)
+        .end();
+        
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+    
+    @Test
+    public void testBytesFromFileChannel() throws IOException {
+        byte[] blob = new byte[70000];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) (i * 13);
+        }
+        
+        File in = File.createTempFile("binson", ".in");
+        File outFile = File.createTempFile("binson", ".out");
+        FileOutputStream fileOut = null;
+        FileInputStream fileIn = null;
+        
+        try {
+            fileOut = new FileOutputStream(in);
+            fileOut.write(blob);
+            fileOut.close();
+            
+            fileIn = new FileInputStream(in);
+            FileChannel channel = fileIn.getChannel();
+            
+            w.begin().name("a").bytes(channel, 10, 60000).end();
+            
+            fileOut = new FileOutputStream(outFile);
+            new BinsonLight.Writer(fileOut).begin().name("a").bytes(channel, 10, 60000).end();
+            fileOut.close();
+            
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            new BinsonLight.Writer(expected).begin()
+                .name("a").bytes(Arrays.copyOfRange(blob, 10, 60010)).end();
+            
+            assertArrayEquals(expected.toByteArray(), out.toByteArray());
+            
+            byte[] written = new byte[(int) outFile.length()];
+            DataInputStream dataIn = new DataInputStream(new FileInputStream(outFile));
+            dataIn.readFully(written);
+            dataIn.close();
+            assertArrayEquals(expected.toByteArray(), written);
+            
+            try {
+                w.bytes(channel, 60000, 20000);
+                fail("expected EOFException");
+            } catch (EOFException e) {
+                // expected
+            }
+        } finally {
+            if (fileIn != null) {
+                fileIn.close();
+            }
+            in.delete();
+            outFile.delete();
+        }
+    }
+    
+    @Test
+    public void testSizer() throws IOException {
+        long[] longs = {0, 127, 128, -32769, 1L << 40};
+        String[] strings = {"", "abc", "åäö€", "😀", "\ud800x", "x\udc00", new String(new char[200])};
+        BinsonLight.Sizer sizer = new BinsonLight.Sizer();
+        
+        w.begin();
+        sizer.begin();
+        for (int i = 0; i < strings.length; i++) {
+            w.name("s" + i).string(strings[i]);
+            sizer.name("s" + i).string(strings[i]);
+            assertEquals(strings[i], (long) strings[i].getBytes("UTF-8").length, 
+                    (long) BinsonLight.Sizer.utf8Length(strings[i]));
+        }
+        w.name("t").integers(longs, 0, longs.length).bool(true).doubl(1.0).bytes(new byte[40000])
+            .beginArray().integer(Long.MIN_VALUE).endArray().end();
+        sizer.name("t").integers(longs, 0, longs.length).bool(true).doubl(1.0).bytes(new byte[40000])
+            .beginArray().integer(Long.MIN_VALUE).endArray().end();
+        
+        assertEquals(out.size(), sizer.size());
+        assertEquals(0, sizer.reset().size());
+    }
+    
+    @Test
+    public void testRawIsWrittenAtOnce() throws IOException {
+        // {a=1;} = 40140161100141, copied as-is without a following write.
+        byte[] bytes = Hex.toBytes("40140161100141");
+        
+        w.raw(bytes, 0, bytes.length);
+        assertOutput("40140161100141");
+    }
+    
     private void assertOutput(String hex) {
         assertArrayEquals(Hex.toBytes(hex), out.toByteArray());
     }
@@ -0,0 +1,291 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.IOException;
+
+/**
+ * Columnar (struct-of-arrays) decoding and encoding of an array of
+ * objects that all have the same fields, for example a batch of metrics.
+ *
+ * Columns are added with add(); each column has a field name and a type:
+ * INTEGER, DOUBLE, BOOLEAN or STRING. read() parses the array in one pass and
+ * fills a primitive array per column; fields not in a column are skipped.
+ * String columns are stored as UTF-8 bytes in one array with an offset array:
+ * the string of row i is stringData[stringOffsets[i], stringOffsets[i + 1]).
+ * write() writes the columns as an array of objects.
+ *
+ * Column arrays are reused and grown as needed, so they may be longer than
+ * the number of rows. Not thread-safe.
+ */
+public class BinsonColumns {
+    private Column[] columns = new Column[0];
+    private int rows;
+
+    /**
+     * A column. Depending on the type, one of integers, doubles, booleans or
+     * stringOffsets/stringData holds the values.
+     */
+    public static class Column {
+        public final String name;
+        public final BinsonLight.ValueType type;
+        public long[] integers;
+        public double[] doubles;
+        public boolean[] booleans;
+        public int[] stringOffsets;
+        public byte[] stringData;
+
+        private final BinsonLight.StringValue nameValue;
+
+        private Column(String name, BinsonLight.ValueType type) {
+            this.name = name;
+            this.type = type;
+            this.nameValue = new BinsonLight.StringValue(name);
+        }
+
+        /**
+         * Sets the string of 'row' given its UTF-8 bytes. Rows must be set in
+         * order, starting with row 0, before write() is called.
+         */
+        public void setString(int row, byte[] utf8) {
+            int start = stringOffsets[row];
+            int end = start + utf8.length;
+            ensureStringData(end);
+            System.arraycopy(utf8, 0, stringData, start, utf8.length);
+            stringOffsets[row + 1] = end;
+        }
+
+        /** Returns the string of 'row' as a new String. */
+        public String getString(int row) {
+            BinsonLight.StringValue s = new BinsonLight.StringValue();
+            s.set(stringData, stringOffsets[row], stringOffsets[row + 1] - stringOffsets[row]);
+            return s.toString();
+        }
+
+        private void ensureRows(int capacity) {
+            switch (type) {
+            case INTEGER:
+                if (integers.length < capacity) {
+                    long[] a = new long[capacity];
+                    System.arraycopy(integers, 0, a, 0, integers.length);
+                    integers = a;
+                }
+                break;
+            case DOUBLE:
+                if (doubles.length < capacity) {
+                    double[] a = new double[capacity];
+                    System.arraycopy(doubles, 0, a, 0, doubles.length);
+                    doubles = a;
+                }
+                break;
+            case BOOLEAN:
+                if (booleans.length < capacity) {
+                    boolean[] a = new boolean[capacity];
+                    System.arraycopy(booleans, 0, a, 0, booleans.length);
+                    booleans = a;
+                }
+                break;
+            default:
+                if (stringOffsets.length < capacity + 1) {
+                    int[] a = new int[capacity + 1];
+                    System.arraycopy(stringOffsets, 0, a, 0, stringOffsets.length);
+                    stringOffsets = a;
+                }
+            }
+        }
+
+        private void ensureStringData(int size) {
+            if (stringData.length < size) {
+                byte[] a = new byte[Math.max(size, stringData.length * 2)];
+                System.arraycopy(stringData, 0, a, 0, stringData.length);
+                stringData = a;
+            }
+        }
+    }
+
+    /**
+     * Adds a column for the field 'name' with the given type.
+     *
+     * @throws IllegalArgumentException
+     *         If the type is not INTEGER, DOUBLE, BOOLEAN or STRING,
+     *         or if there is already a column with the name.
+     */
+    public Column add(String name, BinsonLight.ValueType type) {
+        Column c = new Column(name, type);
+
+        switch (type) {
+        case INTEGER: c.integers = new long[16]; break;
+        case DOUBLE: c.doubles = new double[16]; break;
+        case BOOLEAN: c.booleans = new boolean[16]; break;
+        case STRING: c.stringOffsets = new int[17]; c.stringData = new byte[256]; break;
+        default: throw new IllegalArgumentException("unsupported column type: " + type);
+        }
+
+        // Columns are kept in Binson field order for single-pass matching.
+        Column[] a = new Column[columns.length + 1];
+        int i = 0;
+        for (; i < columns.length && columns[i].nameValue.compareTo(c.nameValue) < 0; i++) {
+            a[i] = columns[i];
+        }
+        if (i < columns.length && columns[i].nameValue.equals(c.nameValue)) {
+            throw new IllegalArgumentException("duplicate column: " + name);
+        }
+        a[i] = c;
+        System.arraycopy(columns, i, a, i + 1, columns.length - i);
+        columns = a;
+
+        c.ensureRows(rows);
+        return c;
+    }
+
+    /** Returns the number of rows. */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Sets the number of rows, for example before filling the columns
+     * and calling write(). Column arrays are grown as needed.
+     */
+    public void setRows(int rows) {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].ensureRows(rows);
+        }
+        this.rows = rows;
+    }
+
+    /**
+     * Reads the objects of an array into the columns, one row per object.
+     * The parser must be positioned before the first array value, for example
+     * after goIntoArray(). When this method returns, the end of the array has been
+     * reached; call goUpToObject() or goUpToArray() to continue.
+     *
+     * @return The number of rows read.
+     * @throws BinsonLight.FormatException
+     *         If an array value is not an object, if a field of a column is missing,
+     *         or if a field has another type than its column.
+     */
+    public int read(BinsonLight.Parser p) {
+        Column[] columns = this.columns;
+        int n = columns.length;
+        int row = 0;
+
+        while (p.nextArrayValue()) {
+            if (p.getType() != BinsonLight.ValueType.OBJECT) {
+                throw new BinsonLight.FormatException("row " + row + " is not an object");
+            }
+
+            if (row == capacity()) {
+                setRows(Math.max(16, row * 2));
+            }
+
+            p.goIntoObject();
+            int c = 0;
+
+            while (c < n && p.nextField()) {
+                int cmp = columns[c].nameValue.compareTo(p.getName());
+                if (cmp < 0) {
+                    throw missing(columns[c], row);
+                } else if (cmp == 0) {
+                    store(columns[c], row, p);
+                    c++;
+                }
+            }
+
+            if (c < n) {
+                throw missing(columns[c], row);
+            }
+
+            p.goUpToArray();
+            row++;
+        }
+
+        rows = row;
+        return row;
+    }
+
+    /**
+     * Writes the rows as an array of objects with one field per column.
+     */
+    public void write(BinsonLight.Writer w) throws IOException {
+        Column[] columns = this.columns;
+        w.beginArray();
+
+        for (int row = 0; row < rows; row++) {
+            w.begin();
+
+            for (int i = 0; i < columns.length; i++) {
+                Column c = columns[i];
+                BinsonLight.StringValue name = c.nameValue;
+                w.string(name.buffer, name.offset, name.size);
+
+                switch (c.type) {
+                case INTEGER:
+                    w.integer(c.integers[row]);
+                    break;
+                case DOUBLE:
+                    w.doubl(c.doubles[row]);
+                    break;
+                case BOOLEAN:
+                    w.bool(c.booleans[row]);
+                    break;
+                default:
+                    int start = c.stringOffsets[row];
+                    w.string(c.stringData, start, c.stringOffsets[row + 1] - start);
+                }
+            }
+
+            w.end();
+        }
+
+        w.endArray();
+    }
+
+    private void store(Column c, int row, BinsonLight.Parser p) {
+        if (p.getType() != c.type) {
+            throw new BinsonLight.FormatException("row " + row + ", field '" + c.name
+                    + "' has type " + p.getType() + ", expected " + c.type);
+        }
+
+        switch (c.type) {
+        case INTEGER:
+            c.integers[row] = p.getInteger();
+            break;
+        case DOUBLE:
+            c.doubles[row] = p.getDouble();
+            break;
+        case BOOLEAN:
+            c.booleans[row] = p.getBoolean();
+            break;
+        default:
+            BinsonLight.StringValue s = p.getString();
+            if (row == 0) {
+                c.stringOffsets[0] = 0;
+            }
+            int start = c.stringOffsets[row];
+            c.ensureStringData(start + s.size);
+            System.arraycopy(s.buffer, s.offset, c.stringData, start, s.size);
+            c.stringOffsets[row + 1] = start + s.size;
+        }
+    }
+
+    private int capacity() {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < columns.length; i++) {
+            Column c = columns[i];
+            int capacity;
+            switch (c.type) {
+            case INTEGER: capacity = c.integers.length; break;
+            case DOUBLE: capacity = c.doubles.length; break;
+            case BOOLEAN: capacity = c.booleans.length; break;
+            default: capacity = c.stringOffsets.length - 1;
+            }
+            min = Math.min(min, capacity);
+        }
+        return min;
+    }
+
+    private static BinsonLight.FormatException missing(Column c, int row) {
+        return new BinsonLight.FormatException("row " + row + ", no field named '" + c.name + "'");
+    }
+}
@@ -0,0 +1,324 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Delta encoding of successive Binson objects that differ in a few fields,
+ * for example market data or sensor readings sent over a slow link.
+ *
+ * The Encoder compares each message with the previous one and writes a
+ * patch, itself a Binson object:
+ * <pre>
+ * {del=["removed", ...]; seq=17; set={changed=...; added=...}}
+ * </pre>
+ * "del" and "set" are left out when empty. The top-level fields of the two
+ * messages are compared in one merge-join pass, using that fields are sorted;
+ * a field is changed if its encoded value bytes differ, and a changed value
+ * is sent whole. Every keyframeInterval messages, when requested, and when
+ * a patch would not be smaller than the message itself, a keyframe with
+ * the full message is written instead:
+ * <pre>
+ * {key={...}; seq=18}
+ * </pre>
+ *
+ * The Decoder applies patches to the previous message and keeps the result
+ * in a reusable buffer. Sequence numbers detect lost patches: after a gap,
+ * patches are ignored until the next keyframe; the receiver can ask the
+ * sender to call Encoder.requestKeyframe() to resync sooner.
+ *
+ * Encoder and Decoder are not thread-safe.
+ */
+public class BinsonDelta {
+    private static final BinsonLight.StringValue DEL = new BinsonLight.StringValue("del");
+    private static final BinsonLight.StringValue KEY = new BinsonLight.StringValue("key");
+    private static final BinsonLight.StringValue SEQ = new BinsonLight.StringValue("seq");
+    private static final BinsonLight.StringValue SET = new BinsonLight.StringValue("set");
+    private static final byte[] EMPTY_OBJECT = {0x40, 0x41};
+
+    /** No instances should be created. */
+    private BinsonDelta() {}
+
+    /** Writes patches and keyframes. */
+    public static class Encoder {
+        private final int keyframeInterval;
+        private final ScratchBuffer previous = new ScratchBuffer();
+        private final ScratchBuffer removed = new ScratchBuffer();
+        private final ScratchBuffer changed = new ScratchBuffer();
+        private final BinsonLight.Writer removedWriter = new BinsonLight.Writer(removed);
+        private final BinsonLight.Writer changedWriter = new BinsonLight.Writer(changed);
+        private final BinsonLight.Writer writer = new BinsonLight.Writer(null);
+        private final BinsonLight.Sizer sizer = new BinsonLight.Sizer();
+        private final BinsonLight.Parser prev = new BinsonLight.Parser(EMPTY_OBJECT);
+        private final BinsonLight.Parser cur = new BinsonLight.Parser(EMPTY_OBJECT);
+        private final BinsonLight.BytesValue a = new BinsonLight.BytesValue();
+        private final BinsonLight.BytesValue b = new BinsonLight.BytesValue();
+
+        private long sequence = -1;
+        private boolean keyframeRequested = true;
+
+        /**
+         * Creates a new Encoder.
+         *
+         * @param keyframeInterval  A keyframe is written every keyframeInterval
+         *                          messages, at least 1.
+         */
+        public Encoder(int keyframeInterval) {
+            if (keyframeInterval < 1) {
+                throw new IllegalArgumentException("bad keyframe interval, " + keyframeInterval);
+            }
+            this.keyframeInterval = keyframeInterval;
+        }
+
+        /** Makes the next message a keyframe. */
+        public void requestKeyframe() {
+            keyframeRequested = true;
+        }
+
+        /** Returns the sequence number of the last message encoded, -1 if none. */
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * Writes a patch or a keyframe for the message that starts at 'offset'
+         * in 'message' to 'out'.
+         *
+         * @return True if a keyframe was written.
+         * @throws BinsonLight.FormatException If the message is not valid Binson.
+         */
+        public boolean encode(byte[] message, int offset, OutputStream out) throws IOException {
+            sequence++;
+            writer.reset(out);
+
+            boolean keyframe = keyframeRequested || sequence % keyframeInterval == 0;
+            int size = keyframe ? sizeOf(message, offset) : diff(message, offset);
+
+            if (!keyframe) {
+                sizer.reset().begin();
+                if (removed.size() > 0) {
+                    sizer.name("del").beginArray().raw(removed.buffer(), 0, removed.size()).endArray();
+                }
+                sizer.name("seq").integer(sequence);
+                if (changed.size() > 0) {
+                    sizer.name("set").begin().raw(changed.buffer(), 0, changed.size()).end();
+                }
+                keyframe = sizer.end().size() >= size;
+            }
+
+            if (keyframe) {
+                writer.begin().name("key").raw(message, offset, size)
+                    .name("seq").integer(sequence).end();
+            } else {
+                writer.begin();
+                if (removed.size() > 0) {
+                    writer.name("del").beginArray().raw(removed.buffer(), 0, removed.size()).endArray();
+                }
+                writer.name("seq").integer(sequence);
+                if (changed.size() > 0) {
+                    writer.name("set").begin().raw(changed.buffer(), 0, changed.size()).end();
+                }
+                writer.end();
+            }
+
+            previous.reset();
+            previous.write(message, offset, size);
+            keyframeRequested = false;
+            writer.reset(null);
+            return keyframe;
+        }
+
+        /**
+         * Collects removed names and changed fields, returns the message size.
+         */
+        private int diff(byte[] message, int offset) throws IOException {
+            removed.reset();
+            changed.reset();
+            prev.reset(previous.buffer(), 0);
+            cur.reset(message, offset);
+
+            boolean hasPrev = prev.nextField();
+            boolean hasCur = cur.nextField();
+
+            while (hasPrev || hasCur) {
+                int c;
+                if (!hasPrev) {
+                    c = 1;
+                } else if (!hasCur) {
+                    c = -1;
+                } else {
+                    c = prev.getName().compareTo(cur.getName());
+                }
+
+                if (c < 0) {
+                    BinsonLight.StringValue name = prev.getName();
+                    removedWriter.string(name.buffer, name.offset, name.size);
+                    hasPrev = prev.nextField();
+                } else if (c > 0) {
+                    cur.getRawField(b);
+                    changedWriter.raw(b.buffer, b.offset, b.size);
+                    hasCur = cur.nextField();
+                } else {
+                    // Same name, so the field bytes differ only if the values do.
+                    prev.getRawField(a);
+                    cur.getRawField(b);
+                    if (!a.equals(b)) {
+                        changedWriter.raw(b.buffer, b.offset, b.size);
+                    }
+                    hasPrev = prev.nextField();
+                    hasCur = cur.nextField();
+                }
+            }
+
+            return cur.getOffset() - offset;
+        }
+
+        private int sizeOf(byte[] message, int offset) {
+            cur.reset(message, offset);
+            while (cur.nextField()) {
+                // Skips to the end of the message.
+            }
+            return cur.getOffset() - offset;
+        }
+    }
+
+    /** Applies patches and keyframes. */
+    public static class Decoder {
+        private ScratchBuffer current = new ScratchBuffer();
+        private ScratchBuffer next = new ScratchBuffer();
+        private final BinsonLight.Writer writer = new BinsonLight.Writer(null);
+        private final BinsonLight.Parser patch = new BinsonLight.Parser(EMPTY_OBJECT);
+        private final BinsonLight.Parser del = new BinsonLight.Parser(EMPTY_OBJECT);
+        private final BinsonLight.Parser prev = new BinsonLight.Parser(EMPTY_OBJECT);
+        private final BinsonLight.BytesValue span = new BinsonLight.BytesValue();
+
+        private long sequence = -1;
+        private boolean synced;
+
+        /**
+         * Applies the patch or keyframe that starts at 'offset' in 'bytes'.
+         * Returns false if a patch was ignored because a previous patch was lost
+         * or because no keyframe has been received yet; the message is then
+         * not updated.
+         *
+         * @throws BinsonLight.FormatException If the patch is not valid.
+         */
+        public boolean decode(byte[] bytes, int offset) {
+            patch.reset(bytes, offset);
+
+            if (patch.tryField(KEY)) {
+                if (patch.getType() != BinsonLight.ValueType.OBJECT) {
+                    throw new BinsonLight.FormatException("key is not an object");
+                }
+                patch.getRawValue(span);
+                patch.field(SEQ);
+                current.reset();
+                current.write(span.buffer, span.offset, span.size);
+                sequence = patch.getInteger();
+                synced = true;
+                return true;
+            }
+
+            patch.field(SEQ);
+            long seq = patch.getInteger();
+            if (!synced || seq != sequence + 1) {
+                synced = false;
+                return false;
+            }
+
+            del.reset(bytes, offset);
+            boolean hasDel = del.tryField(DEL);
+            if (hasDel) {
+                del.goIntoArray();
+                hasDel = del.nextArrayValue();
+            }
+
+            boolean hasSet = patch.tryField(SET);
+            if (hasSet) {
+                patch.goIntoObject();
+                hasSet = patch.nextField();
+            }
+
+            try {
+                apply(hasDel, hasSet);
+            } catch (IOException e) {
+                throw new Error(e);
+            }
+
+            ScratchBuffer b = current;
+            current = next;
+            next = b;
+            sequence = seq;
+            return true;
+        }
+
+        /** Returns the buffer with the current message, valid until the next call to decode(). */
+        public byte[] buffer() {
+            return current.buffer();
+        }
+
+        /** Returns the size of the current message, it starts at offset 0 of buffer(). */
+        public int size() {
+            return current.size();
+        }
+
+        /** Returns the sequence number of the current message, -1 if none. */
+        public long sequence() {
+            return sequence;
+        }
+
+        /** Returns a copy of the current message. */
+        public byte[] toBytes() {
+            return current.toByteArray();
+        }
+
+        private void apply(boolean hasDel, boolean hasSet) throws IOException {
+            next.reset();
+            writer.reset(next);
+            writer.begin();
+            prev.reset(current.buffer(), 0);
+            boolean hasPrev = current.size() > 0 && prev.nextField();
+
+            while (hasPrev || hasSet) {
+                int c;
+                if (!hasPrev) {
+                    c = 1;
+                } else if (!hasSet) {
+                    c = -1;
+                } else {
+                    c = prev.getName().compareTo(patch.getName());
+                }
+
+                if (c < 0) {
+                    while (hasDel && name(del).compareTo(prev.getName()) < 0) {
+                        hasDel = del.nextArrayValue();
+                    }
+                    if (!hasDel || !name(del).equals(prev.getName())) {
+                        prev.getRawField(span);
+                        writer.raw(span.buffer, span.offset, span.size);
+                    }
+                    hasPrev = prev.nextField();
+                } else {
+                    patch.getRawField(span);
+                    writer.raw(span.buffer, span.offset, span.size);
+                    hasSet = patch.nextField();
+                    if (c == 0) {
+                        hasPrev = prev.nextField();
+                    }
+                }
+            }
+
+            writer.end();
+            writer.reset(null);
+        }
+
+        private static BinsonLight.StringValue name(BinsonLight.Parser p) {
+            if (p.getType() != BinsonLight.ValueType.STRING) {
+                throw new BinsonLight.FormatException("del contains a non-string value");
+            }
+            return p.getString();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+/**
+ * Filters Binson objects with a predicate on their top-level fields,
+ * for example to drop most records of a stream early.
+ *
+ * A predicate is one or more conditions joined with &amp;&amp;, for example:
+ * <pre>
+ * type == "trade" &amp;&amp; qty &gt; 1000 &amp;&amp; price &lt;= 9.5 &amp;&amp; test != true
+ * </pre>
+ * A condition is a field name, an operator (==, !=, &lt;, &lt;=, &gt;, &gt;=)
+ * and a constant: an integer, a double, a string in double quotes
+ * (with \" and \\ escapes) or true/false. Integers and doubles compare
+ * by numeric value; strings compare by their UTF-8 bytes, that is, in
+ * Binson field order. A condition is false if the field is missing or
+ * if its value cannot be compared with the constant.
+ *
+ * The conditions are sorted by field name when compiled, so an object is
+ * evaluated in one pass over its fields that stops at the first condition
+ * that fails or at the first field after a missing one; fields after the
+ * last condition are not looked at. String constants are UTF-8 encoded once
+ * and compared with the raw field bytes.
+ *
+ * matches() tests one object. reset() and next() scan a buffer of
+ * concatenated objects and stop at each matching one.
+ * Statistics: records(), matched(), selectivity() and rejectedBy() for each
+ * condition.
+ *
+ * Not thread-safe; compile one instance per thread.
+ */
+public class BinsonFilter {
+    private static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+    private static final String[] OPERATORS = {"==", "!=", "<", "<=", ">", ">="};
+
+    private final String expression;
+    private final Condition[] conditions;
+    private final long[] rejected;
+    private final BinsonLight.Parser parser = new BinsonLight.Parser(new byte[] {0x40, 0x41});
+
+    private long records;
+    private long matched;
+
+    private byte[] buffer;
+    private int offset;
+    private int end;
+    private int recordOffset;
+    private int recordSize;
+
+    /** True if the last evaluate() read to the end of the object. */
+    private boolean atEnd;
+
+    private BinsonFilter(String expression, Condition[] conditions) {
+        this.expression = expression;
+        this.rejected = new long[conditions.length];
+
+        // Stable insertion sort by field name, keeps conditions on one field in order.
+        Condition[] sorted = conditions.clone();
+        for (int i = 1; i < sorted.length; i++) {
+            Condition c = sorted[i];
+            int j = i;
+            for (; j > 0 && sorted[j - 1].name.compareTo(c.name) > 0; j--) {
+                sorted[j] = sorted[j - 1];
+            }
+            sorted[j] = c;
+        }
+        this.conditions = sorted;
+    }
+
+    /**
+     * Compiles a predicate.
+     *
+     * @throws IllegalArgumentException If the expression is not valid.
+     */
+    public static BinsonFilter compile(String expression) {
+        return new BinsonFilter(expression, new ExpressionParser(expression).parse());
+    }
+
+    /**
+     * Returns true if the object that starts at 'offset' in 'buffer' matches.
+     *
+     * @throws BinsonLight.FormatException If the object is not valid Binson.
+     */
+    public boolean matches(byte[] buffer, int offset) {
+        parser.reset(buffer, offset);
+        return evaluate(parser);
+    }
+
+    /**
+     * Sets a buffer of concatenated objects in buffer[offset, end) to scan with next().
+     */
+    public void reset(byte[] buffer, int offset, int end) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.end = end;
+        this.recordOffset = offset;
+        this.recordSize = 0;
+    }
+
+    /**
+     * Moves to the next matching object. Returns false when there are no more
+     * objects. After a true return, recordOffset() and recordSize() give the
+     * position of the object in the buffer.
+     *
+     * @throws BinsonLight.FormatException If an object is not valid Binson.
+     */
+    public boolean next() {
+        BinsonLight.Parser p = parser;
+
+        while (offset < end) {
+            int start = offset;
+            p.reset(buffer, start);
+            boolean match = evaluate(p);
+
+            if (!atEnd) {
+                while (p.nextField()) {
+                    // Skips the rest of the object to find where the next one starts.
+                }
+            }
+
+            offset = p.getOffset();
+            if (match) {
+                recordOffset = start;
+                recordSize = offset - start;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /** Returns the offset of the current matching object, see next(). */
+    public int recordOffset() {
+        return recordOffset;
+    }
+
+    /** Returns the size of the current matching object, see next(). */
+    public int recordSize() {
+        return recordSize;
+    }
+
+    /** Returns the number of objects evaluated. */
+    public long records() {
+        return records;
+    }
+
+    /** Returns the number of objects that matched. */
+    public long matched() {
+        return matched;
+    }
+
+    /** Returns matched() / records(), or 0 if no objects have been evaluated. */
+    public double selectivity() {
+        return records == 0 ? 0 : (double) matched / records;
+    }
+
+    /** Returns the number of conditions. */
+    public int conditions() {
+        return rejected.length;
+    }
+
+    /**
+     * Returns the number of objects rejected by a condition.
+     * Conditions are numbered from 0 in the order they appear in the expression.
+     */
+    public long rejectedBy(int condition) {
+        return rejected[condition];
+    }
+
+    /** Sets all statistics to zero. */
+    public void resetStatistics() {
+        records = 0;
+        matched = 0;
+        for (int i = 0; i < rejected.length; i++) {
+            rejected[i] = 0;
+        }
+    }
+
+    /** Returns the expression and the statistics. */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(expression);
+        sb.append(" [records=").append(records).append(", matched=").append(matched);
+        for (int i = 0; i < rejected.length; i++) {
+            sb.append(", rejectedBy").append(i).append('=').append(rejected[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    private boolean evaluate(BinsonLight.Parser p) {
+        Condition[] conditions = this.conditions;
+        int n = conditions.length;
+        int c = 0;
+        records++;
+        atEnd = false;
+
+        while (c < n) {
+            if (!p.nextField()) {
+                atEnd = true;
+                break;
+            }
+
+            BinsonLight.StringValue name = p.getName();
+            int cmp = conditions[c].name.compareTo(name);
+            if (cmp > 0) {
+                continue;
+            } else if (cmp < 0) {
+                return reject(conditions[c]);
+            }
+
+            do {
+                if (!conditions[c].test(p)) {
+                    return reject(conditions[c]);
+                }
+                c++;
+            } while (c < n && conditions[c].name.equals(name));
+        }
+
+        if (c < n) {
+            return reject(conditions[c]);
+        }
+
+        matched++;
+        return true;
+    }
+
+    private boolean reject(Condition c) {
+        rejected[c.index]++;
+        return false;
+    }
+
+    /** A compiled condition: field name, operator and constant. */
+    private static final class Condition {
+        final int index;
+        final BinsonLight.StringValue name;
+        final int op;
+        final BinsonLight.ValueType type;
+        long integer;
+        double doubl;
+        boolean bool;
+        BinsonLight.StringValue string;
+
+        Condition(int index, String name, int op, BinsonLight.ValueType type) {
+            this.index = index;
+            this.name = new BinsonLight.StringValue(name);
+            this.op = op;
+            this.type = type;
+        }
+
+        boolean test(BinsonLight.Parser p) {
+            BinsonLight.ValueType fieldType = p.getType();
+            int cmp;
+
+            switch (type) {
+            case INTEGER:
+                if (fieldType == BinsonLight.ValueType.INTEGER) {
+                    long value = p.getInteger();
+                    cmp = value < integer ? -1 : (value == integer ? 0 : 1);
+                } else if (fieldType == BinsonLight.ValueType.DOUBLE) {
+                    cmp = Double.compare(p.getDouble(), (double) integer);
+                } else {
+                    return false;
+                }
+                break;
+
+            case DOUBLE:
+                if (fieldType == BinsonLight.ValueType.DOUBLE) {
+                    cmp = Double.compare(p.getDouble(), doubl);
+                } else if (fieldType == BinsonLight.ValueType.INTEGER) {
+                    cmp = Double.compare((double) p.getInteger(), doubl);
+                } else {
+                    return false;
+                }
+                break;
+
+            case STRING:
+                if (fieldType != BinsonLight.ValueType.STRING) {
+                    return false;
+                }
+                if (op == EQ || op == NE) {
+                    cmp = p.getString().equals(string) ? 0 : 1;
+                } else {
+                    cmp = p.getString().compareTo(string);
+                }
+                break;
+
+            default:
+                if (fieldType != BinsonLight.ValueType.BOOLEAN) {
+                    return false;
+                }
+                cmp = p.getBoolean() == bool ? 0 : 1;
+            }
+
+            switch (op) {
+            case EQ: return cmp == 0;
+            case NE: return cmp != 0;
+            case LT: return cmp < 0;
+            case LE: return cmp <= 0;
+            case GT: return cmp > 0;
+            default: return cmp >= 0;
+            }
+        }
+    }
+
+    /** Parses an expression into conditions. */
+    private static final class ExpressionParser {
+        private final String s;
+        private int pos;
+
+        ExpressionParser(String s) {
+            this.s = s;
+        }
+
+        Condition[] parse() {
+            Condition[] result = new Condition[4];
+            int count = 0;
+
+            do {
+                if (count == result.length) {
+                    Condition[] bigger = new Condition[count * 2];
+                    System.arraycopy(result, 0, bigger, 0, count);
+                    result = bigger;
+                }
+                result[count] = condition(count);
+                count++;
+            } while (accept("&&"));
+
+            skipSpace();
+            if (pos != s.length()) {
+                throw error("expected &&");
+            }
+
+            Condition[] conditions = new Condition[count];
+            System.arraycopy(result, 0, conditions, 0, count);
+            return conditions;
+        }
+
+        private Condition condition(int index) {
+            skipSpace();
+            int start = pos;
+            while (pos < s.length() && isNameChar(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("expected field name");
+            }
+            String name = s.substring(start, pos);
+
+            int op = -1;
+            for (int i = OPERATORS.length - 1; i >= 0 && op == -1; i--) {
+                if (accept(OPERATORS[i])) {
+                    op = i;
+                }
+            }
+            if (op == -1) {
+                throw error("expected operator");
+            }
+
+            skipSpace();
+            if (pos == s.length()) {
+                throw error("expected constant");
+            }
+
+            char ch = s.charAt(pos);
+            Condition c;
+
+            if (ch == '"') {
+                c = new Condition(index, name, op, BinsonLight.ValueType.STRING);
+                c.string = string();
+            } else if (s.startsWith("true", pos) || s.startsWith("false", pos)) {
+                if (op != EQ && op != NE) {
+                    throw error("booleans can only be compared with == and !=");
+                }
+                c = new Condition(index, name, op, BinsonLight.ValueType.BOOLEAN);
+                c.bool = accept("true");
+                if (!c.bool) {
+                    accept("false");
+                }
+            } else {
+                start = pos;
+                boolean isDouble = false;
+                while (pos < s.length() && "+-.0123456789eE".indexOf(s.charAt(pos)) != -1) {
+                    isDouble |= "eE.".indexOf(s.charAt(pos)) != -1;
+                    pos++;
+                }
+                String number = s.substring(start, pos);
+                try {
+                    if (isDouble) {
+                        c = new Condition(index, name, op, BinsonLight.ValueType.DOUBLE);
+                        c.doubl = Double.parseDouble(number);
+                    } else {
+                        c = new Condition(index, name, op, BinsonLight.ValueType.INTEGER);
+                        c.integer = Long.parseLong(number);
+                    }
+                } catch (NumberFormatException e) {
+                    pos = start;
+                    throw error("expected constant");
+                }
+            }
+
+            return c;
+        }
+
+        private BinsonLight.StringValue string() {
+            StringBuilder sb = new StringBuilder();
+            pos++;
+
+            while (true) {
+                if (pos == s.length()) {
+                    throw error("unterminated string");
+                }
+                char ch = s.charAt(pos++);
+                if (ch == '"') {
+                    break;
+                } else if (ch == '\\' && pos < s.length()) {
+                    ch = s.charAt(pos++);
+                }
+                sb.append(ch);
+            }
+
+            return new BinsonLight.StringValue(sb.toString());
+        }
+
+        private boolean accept(String token) {
+            skipSpace();
+            if (s.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static boolean isNameChar(char ch) {
+            return ch == '_' || ch == '$' || Character.isLetterOrDigit(ch);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in: " + s);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Length-prefix framing of Binson objects for stream channels, for example
+ * a SocketChannel used with a Selector.
+ *
+ * A frame is a 4-byte little-endian payload size, optionally followed by
+ * a 4-byte little-endian CRC-32 of the payload, followed by the payload bytes
+ * (typically one Binson object).
+ *
+ * Output is an OutputStream for BinsonLight.Writer that reserves room for the
+ * header in front of the payload; finish() fills in the header and returns
+ * the whole frame as one ByteBuffer, without copying.
+ * Input accumulates bytes read from a channel in a buffer that is reused and
+ * hands out complete frames as (buffer, offset, size), suitable for
+ * BinsonLight.Parser.reset(), without copying.
+ */
+public class BinsonFrames {
+    /** Size of the payload size field. */
+    public static final int SIZE_FIELD_SIZE = 4;
+
+    /** Size of the optional checksum field. */
+    public static final int CHECKSUM_SIZE = 4;
+
+    /** Largest array size that is safe to allocate on common VMs. */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    /** No instances should be created. */
+    private BinsonFrames() {}
+
+    /**
+     * Collects one frame at a time. Write the payload to this stream,
+     * call finish() and write the returned ByteBuffer to the channel.
+     * Then call reset() before the next frame. Not thread-safe.
+     */
+    public static class Output extends ByteArrayOutputStream {
+        private final boolean checksum;
+        private final int headerSize;
+        private final CRC32 crc;
+
+        /**
+         * Creates a new Output.
+         *
+         * @param checksum  True to include a CRC-32 of the payload in each frame.
+         */
+        public Output(boolean checksum) {
+            super(256);
+            this.checksum = checksum;
+            this.headerSize = SIZE_FIELD_SIZE + (checksum ? CHECKSUM_SIZE : 0);
+            this.crc = checksum ? new CRC32() : null;
+            this.count = headerSize;
+        }
+
+        /** Discards the current frame, keeps the buffer. */
+        @Override
+        public synchronized void reset() {
+            count = headerSize;
+        }
+
+        /** Returns the number of payload bytes written to the current frame. */
+        public int payloadSize() {
+            return count - headerSize;
+        }
+
+        /**
+         * Fills in the header and returns the complete frame. The payload is the
+         * bytes written to this stream so far; BinsonLight.Writer writes each value
+         * when it is called, so no flush is needed, but a buffering stream between
+         * the Writer and this stream must be flushed first. The returned
+         * ByteBuffer wraps the internal buffer and is valid until this stream
+         * is written to or reset.
+         */
+        public ByteBuffer finish() {
+            int size = payloadSize();
+            putIntLE(size, buf, 0);
+
+            if (checksum) {
+                crc.reset();
+                crc.update(buf, headerSize, size);
+                putIntLE((int) crc.getValue(), buf, SIZE_FIELD_SIZE);
+            }
+
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Reads frames from a channel. Call read() when the channel is readable,
+     * then next() until it returns false; after each true return the frame
+     * payload is available with buffer(), frameOffset() and frameSize().
+     * A frame is valid until the next call to read(). Not thread-safe.
+     */
+    public static class Input {
+        private final boolean checksum;
+        private final int headerSize;
+        private final int maxFrameSize;
+        private final CRC32 crc;
+
+        private byte[] buffer;
+        private ByteBuffer byteBuffer;
+        private int start;
+        private int end;
+        private int frameOffset;
+        private int frameSize;
+
+        /**
+         * Creates a new Input.
+         *
+         * @param checksum  True if frames include a CRC-32 of the payload.
+         * @param maxFrameSize  Maximum payload size accepted. Values too large for
+         *                      the frame to fit in one array are reduced to the largest
+         *                      size that fits.
+         * @throws IllegalArgumentException If maxFrameSize is negative.
+         */
+        public Input(boolean checksum, int maxFrameSize) {
+            if (maxFrameSize < 0) {
+                throw new IllegalArgumentException("bad max frame size, " + maxFrameSize);
+            }
+            this.checksum = checksum;
+            this.headerSize = SIZE_FIELD_SIZE + (checksum ? CHECKSUM_SIZE : 0);
+            this.maxFrameSize = Math.min(maxFrameSize, MAX_BUFFER_SIZE - headerSize);
+            this.crc = checksum ? new CRC32() : null;
+            setBuffer(new byte[Math.min(4096, headerSize + this.maxFrameSize)]);
+        }
+
+        /**
+         * Reads available bytes from the channel. Returns the number
+         * of bytes read, or -1 at end-of-stream.
+         */
+        public int read(ReadableByteChannel channel) throws IOException {
+            makeRoom();
+            byteBuffer.limit(buffer.length).position(end);
+            int n = channel.read(byteBuffer);
+            if (n > 0) {
+                end += n;
+            }
+            return n;
+        }
+
+        /**
+         * Makes the next complete frame available. Returns false if there is
+         * no complete frame in the bytes read so far.
+         *
+         * @throws BinsonLight.FormatException
+         *         If the frame size is too large or the checksum does not match.
+         */
+        public boolean next() {
+            if (end - start < headerSize) {
+                return false;
+            }
+
+            int size = getIntLE(buffer, start);
+            if (size < 0 || size > maxFrameSize) {
+                throw new BinsonLight.FormatException("Bad frame size, " + (size & 0xffffffffL) + ".");
+            }
+
+            if (end - start < headerSize + size) {
+                return false;
+            }
+
+            int offset = start + headerSize;
+
+            if (checksum) {
+                crc.reset();
+                crc.update(buffer, offset, size);
+                if ((int) crc.getValue() != getIntLE(buffer, start + SIZE_FIELD_SIZE)) {
+                    throw new BinsonLight.FormatException("Bad frame checksum.");
+                }
+            }
+
+            frameOffset = offset;
+            frameSize = size;
+            start = offset + size;
+            return true;
+        }
+
+        /** Returns the buffer holding the current frame. */
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        /** Returns the offset of the current frame payload in buffer(). */
+        public int frameOffset() {
+            return frameOffset;
+        }
+
+        /** Returns the size of the current frame payload. */
+        public int frameSize() {
+            return frameSize;
+        }
+
+        /**
+         * Moves unconsumed bytes to the start of the buffer when needed, and
+         * grows the buffer if it cannot hold the next frame.
+         */
+        private void makeRoom() {
+            if (start == end) {
+                start = end = 0;
+            }
+
+            int needed = headerSize;
+            if (end - start >= headerSize) {
+                int size = getIntLE(buffer, start);
+                if (size >= 0 && size <= maxFrameSize) {
+                    needed = headerSize + size;
+                }
+            }
+
+            if (end < buffer.length && start + needed <= buffer.length) {
+                return;
+            }
+
+            byte[] target = buffer;
+            if (needed > buffer.length) {
+                target = new byte[Math.max(needed, (int) Math.min(buffer.length * 2L, headerSize + maxFrameSize))];
+            }
+
+            System.arraycopy(buffer, start, target, 0, end - start);
+            end -= start;
+            start = 0;
+            if (target != buffer) {
+                setBuffer(target);
+            }
+        }
+
+        private void setBuffer(byte[] buffer) {
+            this.buffer = buffer;
+            this.byteBuffer = ByteBuffer.wrap(buffer);
+        }
+    }
+
+    private static void putIntLE(int value, byte[] arr, int offset) {
+        arr[offset] = (byte) value;
+        arr[offset + 1] = (byte) (value >>> 8);
+        arr[offset + 2] = (byte) (value >>> 16);
+        arr[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int getIntLE(byte[] arr, int offset) {
+        return (arr[offset] & 0xff) | (arr[offset + 1] & 0xff) << 8
+                | (arr[offset + 2] & 0xff) << 16 | (arr[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,740 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Converts between Binson bytes and JSON text.
+ * 
+ * toJson() walks the Binson bytes
+ * with BinsonLight.Parser and appends JSON directly to a StringBuilder;
+ * no intermediate objects are built. Strings are escaped directly from their
+ * UTF-8 bytes, numbers are appended without boxing and bytes values are written
+ * as base64 strings.
+ * 
+ * fromJson() tokenizes UTF-8 JSON text and feeds BinsonLight.Writer directly.
+ * The fields of each JSON object are encoded into a scratch buffer and then 
+ * written in Binson sort order. String bytes that need no unescaping are copied
+ * to the output without creating String objects. JSON null has no Binson 
+ * counterpart and is rejected.
+ */
+public class BinsonJson {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /** No instances should be created. */
+    private BinsonJson() {}
+
+    /**
+     * Returns JSON text for the Binson object in 'binson'.
+     */
+    public static String toJson(byte[] binson) {
+        StringBuilder sb = new StringBuilder(binson.length * 2);
+        toJson(binson, 0, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends JSON text for the Binson object that starts at 'offset' in 'binson'
+     * to 'out'. The StringBuilder can be reused between calls (setLength(0))
+     * to avoid memory allocation.
+     *
+     * @throws BinsonLight.FormatException If the Binson bytes are not valid.
+     */
+    public static void toJson(byte[] binson, int offset, StringBuilder out) {
+        BinsonLight.Parser p = new BinsonLight.Parser(binson, offset);
+        writeObjectFields(p, out);
+    }
+
+    private static void writeObjectFields(BinsonLight.Parser p, StringBuilder out) {
+        out.append('{');
+        boolean first = true;
+        while (p.nextField()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+
+            BinsonLight.StringValue name = p.getName();
+            writeString(name.buffer, name.offset, name.size, out);
+            out.append(':');
+
+            switch (p.getType()) {
+            case OBJECT:
+                p.goIntoObject();
+                writeObjectFields(p, out);
+                p.goUpToObject();
+                break;
+            case ARRAY:
+                p.goIntoArray();
+                writeArrayValues(p, out);
+                p.goUpToObject();
+                break;
+            default:
+                writeScalar(p, out);
+            }
+        }
+        out.append('}');
+    }
+
+    private static void writeArrayValues(BinsonLight.Parser p, StringBuilder out) {
+        out.append('[');
+        boolean first = true;
+        while (p.nextArrayValue()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+
+            switch (p.getType()) {
+            case OBJECT:
+                p.goIntoObject();
+                writeObjectFields(p, out);
+                p.goUpToArray();
+                break;
+            case ARRAY:
+                p.goIntoArray();
+                writeArrayValues(p, out);
+                p.goUpToArray();
+                break;
+            default:
+                writeScalar(p, out);
+            }
+        }
+        out.append(']');
+    }
+
+    private static void writeScalar(BinsonLight.Parser p, StringBuilder out) {
+        switch (p.getType()) {
+        case BOOLEAN:
+            out.append(p.getBoolean());
+            break;
+        case INTEGER:
+            out.append(p.getInteger());
+            break;
+        case DOUBLE:
+            double d = p.getDouble();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                // Not representable in JSON.
+                out.append("null");
+            } else {
+                out.append(d);
+            }
+            break;
+        case STRING:
+            BinsonLight.StringValue s = p.getString();
+            writeString(s.buffer, s.offset, s.size, out);
+            break;
+        case BYTES:
+            BinsonLight.BytesValue b = p.getBytes();
+            writeBase64(b.buffer, b.offset, b.size, out);
+            break;
+        default:
+            throw new Error("never happens, type: " + p.getType());
+        }
+    }
+
+    /**
+     * Writes a quoted and escaped JSON string given UTF-8 bytes.
+     * Malformed UTF-8 sequences are replaced with U+FFFD.
+     */
+    private static void writeString(byte[] buf, int offset, int size, StringBuilder out) {
+        out.append('"');
+        int end = offset + size;
+        int i = offset;
+
+        while (i < end) {
+            int b = buf[i] & 0xff;
+
+            if (b < 0x80) {
+                i++;
+                switch (b) {
+                case '"':  out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (b < 0x20) {
+                        out.append("\\u00").append(HEX[b >> 4]).append(HEX[b & 0x0f]);
+                    } else {
+                        out.append((char) b);
+                    }
+                }
+                continue;
+            }
+
+            int count;
+            int cp;
+            if ((b & 0xe0) == 0xc0) {
+                count = 1;
+                cp = b & 0x1f;
+            } else if ((b & 0xf0) == 0xe0) {
+                count = 2;
+                cp = b & 0x0f;
+            } else if ((b & 0xf8) == 0xf0) {
+                count = 3;
+                cp = b & 0x07;
+            } else {
+                out.append('\ufffd');
+                i++;
+                continue;
+            }
+
+            if (i + count >= end) {
+                out.append('\ufffd');
+                break;
+            }
+
+            boolean ok = true;
+            for (int k = 1; k <= count; k++) {
+                int c = buf[i + k] & 0xff;
+                if ((c & 0xc0) != 0x80) {
+                    ok = false;
+                    break;
+                }
+                cp = (cp << 6) | (c & 0x3f);
+            }
+
+            if (!ok) {
+                out.append('\ufffd');
+                i++;
+                continue;
+            }
+
+            out.appendCodePoint(cp <= 0x10ffff ? cp : 0xfffd);
+            i += count + 1;
+        }
+
+        out.append('"');
+    }
+
+    private static void writeBase64(byte[] buf, int offset, int size, StringBuilder out) {
+        out.append('"');
+        int end = offset + size;
+        int i = offset;
+
+        for (; i + 2 < end; i += 3) {
+            int v = (buf[i] & 0xff) << 16 | (buf[i + 1] & 0xff) << 8 | (buf[i + 2] & 0xff);
+            out.append(BASE64[v >>> 18]).append(BASE64[(v >>> 12) & 0x3f])
+                .append(BASE64[(v >>> 6) & 0x3f]).append(BASE64[v & 0x3f]);
+        }
+
+        int rest = end - i;
+        if (rest == 1) {
+            int v = (buf[i] & 0xff) << 16;
+            out.append(BASE64[v >>> 18]).append(BASE64[(v >>> 12) & 0x3f]).append("==");
+        } else if (rest == 2) {
+            int v = (buf[i] & 0xff) << 16 | (buf[i + 1] & 0xff) << 8;
+            out.append(BASE64[v >>> 18]).append(BASE64[(v >>> 12) & 0x3f])
+                .append(BASE64[(v >>> 6) & 0x3f]).append('=');
+        }
+
+        out.append('"');
+    }
+
+    /**
+     * Returns Binson bytes given JSON text. The top-level JSON value
+     * must be an object.
+     *
+     * @throws BinsonLight.FormatException If the JSON text is not valid or 
+     *         cannot be represented as Binson.
+     */
+    public static byte[] fromJson(String json) {
+        byte[] utf8;
+        try {
+            utf8 = json.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length);
+        try {
+            fromJson(utf8, 0, utf8.length, out);
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes Binson bytes to 'out' given UTF-8 JSON text in 
+     * json[offset, offset + size). The top-level JSON value must be an object.
+     *
+     * @throws BinsonLight.FormatException If the JSON text is not valid or 
+     *         cannot be represented as Binson.
+     */
+    public static void fromJson(byte[] json, int offset, int size, OutputStream out) throws IOException {
+        JsonReader r = new JsonReader(json, offset, offset + size);
+        r.skipWhitespace();
+        if (r.peek() != '{') {
+            throw r.error("expected '{'");
+        }
+        r.readObject(0, out);
+        r.skipWhitespace();
+        if (r.pos != r.end) {
+            throw r.error("unexpected data after top-level object");
+        }
+    }
+
+    /**
+     * Recursive descent JSON reader. Objects at nesting depth d are encoded into 
+     * scratch[d]; the fields are then sorted and copied to the parent.
+     */
+    private static final class JsonReader {
+        private final byte[] json;
+        private final int end;
+        private int pos;
+
+        private ScratchBuffer[] scratch = new ScratchBuffer[4];
+        private BinsonLight.Writer[] writers = new BinsonLight.Writer[4];
+        private int[][] entries = new int[4][];
+
+        /** Sort order of the fields of the object being written, and merge sort scratch. */
+        private int[] order = new int[32];
+        private int[] tmp = new int[32];
+
+        /** Holds unescaped string bytes. */
+        private byte[] unescaped = new byte[64];
+        private final BinsonLight.StringValue name1 = new BinsonLight.StringValue();
+        private final BinsonLight.StringValue name2 = new BinsonLight.StringValue();
+
+        JsonReader(byte[] json, int offset, int end) {
+            this.json = json;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        /**
+         * Reads an object at 'depth' and writes it as Binson to 'parent'.
+         * Each field is recorded as four ints in entries[depth]: 
+         * field start, name offset, name size and field end, all relative to scratch[depth].
+         */
+        void readObject(int depth, OutputStream parent) throws IOException {
+            ensureDepth(depth);
+            ScratchBuffer buf = scratch[depth];
+            BinsonLight.Writer w = writers[depth];
+            buf.reset();
+            int count = 0;
+
+            pos++;   // '{'
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    if (peek() != '"') {
+                        throw error("expected field name");
+                    }
+
+                    int start = buf.size();
+                    readString(w);
+                    int nameSize = buf.size() - start - lengthPrefixSize(buf.buffer(), start);
+                    int nameOffset = buf.size() - nameSize;
+
+                    skipWhitespace();
+                    if (peek() != ':') {
+                        throw error("expected ':'");
+                    }
+                    pos++;
+                    readValue(depth, w);
+
+                    int[] e = entries[depth];
+                    if (e.length < (count + 1) * 4) {
+                        int[] bigger = new int[e.length * 2];
+                        System.arraycopy(e, 0, bigger, 0, e.length);
+                        e = entries[depth] = bigger;
+                    }
+                    e[count * 4] = start;
+                    e[count * 4 + 1] = nameOffset;
+                    e[count * 4 + 2] = nameSize;
+                    e[count * 4 + 3] = buf.size();
+                    count++;
+
+                    skipWhitespace();
+                    byte c = peek();
+                    pos++;
+                    if (c == '}') {
+                        break;
+                    } else if (c != ',') {
+                        pos--;
+                        throw error("expected ',' or '}'");
+                    }
+                }
+            }
+
+            writeSorted(depth, count, parent);
+        }
+
+        private void writeSorted(int depth, int count, OutputStream parent) throws IOException {
+            byte[] b = scratch[depth].buffer();
+            int[] e = entries[depth];
+            if (order.length < count) {
+                order = new int[count * 2];
+                tmp = new int[count * 2];
+            }
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            sort(b, e, order, tmp, 0, count);
+
+            parent.write(0x40);   // BEGIN
+            for (int i = 0; i < count; i++) {
+                int k = order[i];
+                if (i > 0 && compareNames(b, e, order[i - 1], k) == 0) {
+                    throw new BinsonLight.FormatException("duplicate field name: " 
+                            + name1.toString());
+                }
+                parent.write(b, e[k * 4], e[k * 4 + 3] - e[k * 4]);
+            }
+            parent.write(0x41);   // END
+        }
+
+        /** Merge sort of entry indexes in order[from, to), stable. */
+        private void sort(byte[] b, int[] e, int[] order, int[] tmp, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            sort(b, e, order, tmp, from, mid);
+            sort(b, e, order, tmp, mid, to);
+
+            if (compareNames(b, e, order[mid - 1], order[mid]) <= 0) {
+                return;   // Already in order, common case.
+            }
+
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to) {
+                tmp[k++] = compareNames(b, e, order[j], order[i]) < 0 ? order[j++] : order[i++];
+            }
+            while (i < mid) {
+                tmp[k++] = order[i++];
+            }
+            while (j < to) {
+                tmp[k++] = order[j++];
+            }
+            System.arraycopy(tmp, from, order, from, to - from);
+        }
+
+        private int compareNames(byte[] b, int[] e, int i1, int i2) {
+            name1.set(b, e[i1 * 4 + 1], e[i1 * 4 + 2]);
+            name2.set(b, e[i2 * 4 + 1], e[i2 * 4 + 2]);
+            return name1.compareTo(name2);
+        }
+
+        private void readArray(int depth, BinsonLight.Writer w) throws IOException {
+            pos++;   // '['
+            w.beginArray();
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+            } else {
+                while (true) {
+                    readValue(depth, w);
+                    skipWhitespace();
+                    byte c = peek();
+                    pos++;
+                    if (c == ']') {
+                        break;
+                    } else if (c != ',') {
+                        pos--;
+                        throw error("expected ',' or ']'");
+                    }
+                }
+            }
+            w.endArray();
+        }
+
+        /** Reads a JSON value in an object or array at 'depth', writes it with 'w'. */
+        private void readValue(int depth, BinsonLight.Writer w) throws IOException {
+            skipWhitespace();
+            byte c = peek();
+
+            switch (c) {
+            case '{':
+                readObject(depth + 1, scratch[depth]);
+                break;
+            case '[':
+                readArray(depth, w);
+                break;
+            case '"':
+                readString(w);
+                break;
+            case 't':
+                readLiteral("true");
+                w.bool(true);
+                break;
+            case 'f':
+                readLiteral("false");
+                w.bool(false);
+                break;
+            case 'n':
+                throw error("null is not supported by Binson");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(w);
+                } else {
+                    throw error("unexpected character");
+                }
+            }
+        }
+
+        private void readLiteral(String literal) {
+            int len = literal.length();
+            if (pos + len > end) {
+                throw error("expected " + literal);
+            }
+            for (int i = 0; i < len; i++) {
+                if (json[pos + i] != literal.charAt(i)) {
+                    throw error("expected " + literal);
+                }
+            }
+            pos += len;
+        }
+
+        private void readNumber(BinsonLight.Writer w) throws IOException {
+            int start = pos;
+            boolean negative = false;
+            boolean isDouble = false;
+            long value = 0;
+            boolean overflow = false;
+
+            if (json[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+
+            int digitsStart = pos;
+            while (pos < end) {
+                byte c = json[pos];
+                if (c >= '0' && c <= '9') {
+                    int digit = c - '0';
+                    // Accumulate as a negative number to handle Long.MIN_VALUE.
+                    if (value < (Long.MIN_VALUE + digit) / 10) {
+                        overflow = true;
+                    }
+                    value = value * 10 - digit;
+                } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    isDouble = true;
+                } else {
+                    break;
+                }
+                pos++;
+            }
+
+            if (pos == digitsStart) {
+                throw error("bad number");
+            }
+
+            if (!isDouble && !overflow && (negative || value != Long.MIN_VALUE)) {
+                w.integer(negative ? value : -value);
+                return;
+            }
+
+            String s;
+            try {
+                s = new String(json, start, pos - start, "US-ASCII");
+            } catch (UnsupportedEncodingException e) {
+                throw new Error(e);
+            }
+
+            try {
+                w.doubl(Double.parseDouble(s));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("bad number");
+            }
+        }
+
+        /**
+         * Reads a JSON string and writes it as a Binson string. If the string
+         * contains no escape sequences, the bytes are copied directly from the input.
+         */
+        private void readString(BinsonLight.Writer w) throws IOException {
+            pos++;   // '"'
+            int start = pos;
+
+            while (pos < end) {
+                byte c = json[pos];
+                if (c == '"') {
+                    w.string(json, start, pos - start);
+                    pos++;
+                    return;
+                } else if (c == '\\') {
+                    readEscapedString(w, start);
+                    return;
+                } else if (c >= 0 && c < 0x20) {
+                    throw error("control character in string");
+                }
+                pos++;
+            }
+
+            throw error("unterminated string");
+        }
+
+        private void readEscapedString(BinsonLight.Writer w, int start) throws IOException {
+            int n = pos - start;
+            ensureUnescaped(n);
+            System.arraycopy(json, start, unescaped, 0, n);
+
+            while (pos < end) {
+                byte c = json[pos++];
+                if (c == '"') {
+                    w.string(unescaped, 0, n);
+                    return;
+                }
+
+                ensureUnescaped(n + 4);
+                if (c != '\\') {
+                    if (c >= 0 && c < 0x20) {
+                        pos--;
+                        throw error("control character in string");
+                    }
+                    unescaped[n++] = c;
+                    continue;
+                }
+
+                if (pos >= end) {
+                    break;
+                }
+
+                c = json[pos++];
+                switch (c) {
+                case '"':  unescaped[n++] = '"'; break;
+                case '\\': unescaped[n++] = '\\'; break;
+                case '/':  unescaped[n++] = '/'; break;
+                case 'b':  unescaped[n++] = '\b'; break;
+                case 'f':  unescaped[n++] = '\f'; break;
+                case 'n':  unescaped[n++] = '\n'; break;
+                case 'r':  unescaped[n++] = '\r'; break;
+                case 't':  unescaped[n++] = '\t'; break;
+                case 'u':
+                    int cp = readHex4();
+                    if (cp >= 0xd800 && cp <= 0xdbff 
+                            && pos + 6 <= end && json[pos] == '\\' && json[pos + 1] == 'u') {
+                        pos += 2;
+                        int low = readHex4();
+                        if (low >= 0xdc00 && low <= 0xdfff) {
+                            cp = 0x10000 + ((cp - 0xd800) << 10) + (low - 0xdc00);
+                        } else {
+                            throw error("bad surrogate pair");
+                        }
+                    }
+                    n = putUtf8(cp, n);
+                    break;
+                default:
+                    pos--;
+                    throw error("bad escape sequence");
+                }
+            }
+
+            throw error("unterminated string");
+        }
+
+        private int readHex4() {
+            if (pos + 4 > end) {
+                throw error("bad \\u escape");
+            }
+
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                int c = json[pos++];
+                int d;
+                if (c >= '0' && c <= '9') {
+                    d = c - '0';
+                } else if (c >= 'a' && c <= 'f') {
+                    d = c - 'a' + 10;
+                } else if (c >= 'A' && c <= 'F') {
+                    d = c - 'A' + 10;
+                } else {
+                    pos--;
+                    throw error("bad \\u escape");
+                }
+                v = (v << 4) | d;
+            }
+            return v;
+        }
+
+        private int putUtf8(int cp, int n) {
+            byte[] u = unescaped;
+            if (cp < 0x80) {
+                u[n++] = (byte) cp;
+            } else if (cp < 0x800) {
+                u[n++] = (byte) (0xc0 | (cp >> 6));
+                u[n++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (cp < 0x10000) {
+                u[n++] = (byte) (0xe0 | (cp >> 12));
+                u[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                u[n++] = (byte) (0x80 | (cp & 0x3f));
+            } else {
+                u[n++] = (byte) (0xf0 | (cp >> 18));
+                u[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                u[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                u[n++] = (byte) (0x80 | (cp & 0x3f));
+            }
+            return n;
+        }
+
+        private void ensureUnescaped(int size) {
+            if (unescaped.length < size) {
+                byte[] bigger = new byte[Math.max(size, unescaped.length * 2)];
+                System.arraycopy(unescaped, 0, bigger, 0, unescaped.length);
+                unescaped = bigger;
+            }
+        }
+
+        private void ensureDepth(int depth) {
+            if (depth >= scratch.length) {
+                int n = scratch.length * 2;
+                ScratchBuffer[] s = new ScratchBuffer[n];
+                BinsonLight.Writer[] w = new BinsonLight.Writer[n];
+                int[][] e = new int[n][];
+                System.arraycopy(scratch, 0, s, 0, scratch.length);
+                System.arraycopy(writers, 0, w, 0, writers.length);
+                System.arraycopy(entries, 0, e, 0, entries.length);
+                scratch = s;
+                writers = w;
+                entries = e;
+            }
+
+            if (scratch[depth] == null) {
+                scratch[depth] = new ScratchBuffer();
+                writers[depth] = new BinsonLight.Writer(scratch[depth]);
+                entries[depth] = new int[32];
+            }
+        }
+
+        /** Returns the size of the type byte and length of the string starting at b[offset]. */
+        private static int lengthPrefixSize(byte[] b, int offset) {
+            return 1 + (1 << (b[offset] & 0x03));
+        }
+
+        void skipWhitespace() {
+            while (pos < end) {
+                byte c = json[pos];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    break;
+                }
+                pos++;
+            }
+        }
+
+        byte peek() {
+            if (pos >= end) {
+                throw error("unexpected end of JSON text");
+            }
+            return json[pos];
+        }
+
+        BinsonLight.FormatException error(String message) {
+            return new BinsonLight.FormatException("Bad JSON at position " + pos + ", " + message + ".");
+        }
+    }
+}
@@ -3,9 +3,16 @@
 
 package binson;
 
+import java.io.EOFException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A small, high-performance implementation of Binson, see binson.org.
@@ -27,7 +34,8 @@ public class BinsonLight {
         BOOLEAN, INTEGER, DOUBLE, STRING, BYTES, ARRAY, OBJECT
     }
     
-    private static final byte BEGIN=0x40, END=0x41, BEGIN_ARRAY=0x42, END_ARRAY=0x43, 
+    /** Type bytes of the Binson format, see binson.org. */
+    public static final byte BEGIN=0x40, END=0x41, BEGIN_ARRAY=0x42, END_ARRAY=0x43, 
         TRUE=0x44, FALSE=0x45, INTEGER1=0x10, INTEGER2=0x11, INTEGER4=0x12, INTEGER8=0x13,
         DOUBLE=0x46, STRING1=0x14, STRING2=0x15, STRING4=0x16, 
         BYTES1=0x18, BYTES2=0x19, BYTES4=0x1a;
@@ -36,6 +44,48 @@ public class BinsonLight {
     private static final int ONE_BYTE = 0x00, TWO_BYTES = 0x01, FOUR_BYTES = 0x02, EIGHT_BYTES = 0x03;
     private static final long TWO_TO_7 = 128, TWO_TO_15 = 32768, TWO_TO_31 = 2147483648L;
     private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+    
+    /** 
+     * Kinds of tokens. BOOLEAN, INTEGER and DOUBLE are adjacent; they are the kinds
+     * with a payload of fixed width. 
+     */
+    private static final int KIND_INVALID = 0, KIND_BEGIN = 1, KIND_BEGIN_ARRAY = 2, 
+        KIND_END = 3, KIND_END_ARRAY = 4, KIND_BOOLEAN = 5, KIND_INTEGER = 6, KIND_DOUBLE = 7,
+        KIND_STRING = 8, KIND_BYTES = 9;
+    
+    private static final ValueType[] KIND_TYPES = {null, ValueType.OBJECT, ValueType.ARRAY, 
+        null, null, ValueType.BOOLEAN, ValueType.INTEGER, ValueType.DOUBLE, 
+        ValueType.STRING, ValueType.BYTES};
+    
+    /**
+     * Token table indexed by type byte (0-255). The low byte is the kind, 
+     * the high byte is the width of the payload (booleans, integers and doubles) 
+     * or of the length (strings and bytes).
+     */
+    private static final short[] TOKENS = new short[256];
+    
+    static {
+        token(BEGIN, KIND_BEGIN, 0);
+        token(BEGIN_ARRAY, KIND_BEGIN_ARRAY, 0);
+        token(END, KIND_END, 0);
+        token(END_ARRAY, KIND_END_ARRAY, 0);
+        token(TRUE, KIND_BOOLEAN, 0);
+        token(FALSE, KIND_BOOLEAN, 0);
+        token(DOUBLE, KIND_DOUBLE, 8);
+        
+        for (int i = 0; i < 4; i++) {
+            token(INTEGER1 + i, KIND_INTEGER, 1 << i);
+        }
+        
+        for (int i = 0; i < 3; i++) {
+            token(STRING1 + i, KIND_STRING, 1 << i);
+            token(BYTES1 + i, KIND_BYTES, 1 << i);
+        }
+    }
+    
+    private static void token(int typeByte, int kind, int width) {
+        TOKENS[typeByte] = (short) (kind | width << 8);
+    }
 
     /**
      * Parses a Binson object in a byte array (byte[]) to a sequence of Binson 
@@ -61,6 +111,26 @@ public class BinsonLight {
         private int state = STATE_ZERO;
         private byte[] buffer;
         private int offset;
+        
+        /** Offset of the type byte of the name of the last field parsed. */
+        private int fieldOffset;
+        
+        /** Offset of the type byte of the last value parsed. */
+        private int valueOffset;
+        
+        /** State after the last value parsed: STATE_BEFORE_FIELD or STATE_BEFORE_ARRAY_VALUE. */
+        private int afterValueState;
+        
+        private boolean stackTraces = true;
+        
+        /** 
+         * Nesting stack, one bit per entered object or array: set if 
+         * the container is an array value, clear if it is a field value.
+         */
+        private long[] nesting = new long[1];
+        
+        /** Number of objects and arrays entered, 0 for the top-level object. */
+        private int depth;
 
         /**
          * Creates a new Parser to parse the bytes in 'buffer'
@@ -81,22 +151,116 @@ public class BinsonLight {
              this.buffer = buffer;
             this.offset = offset;
         }
+        
+        /**
+         * Resets the parser to parse a new Binson object in 'buffer'
+         * starting at the given 'offset'. Allows a Parser instance to be reused
+         * for many messages without allocating memory.
+         */
+        public void reset(byte[] buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.state = STATE_ZERO;
+            this.afterValueState = STATE_ZERO;
+            this.fieldOffset = offset;
+            this.valueOffset = offset;
+            this.depth = 0;
+            this.type = null;
+            this.name.set(EMPTY_BYTE_ARRAY, 0, 0);
+            this.stringValue.set(EMPTY_BYTE_ARRAY, 0, 0);
+            this.bytesValue.set(EMPTY_BYTE_ARRAY, 0, 0);
+        }
 
+        /**
+         * Sets whether FormatExceptions thrown by this parser have a stack trace.
+         * Default is true. Without stack traces, rejecting bad input at a high rate
+         * is much cheaper.
+         */
+        public void setStackTraces(boolean stackTraces) {
+            this.stackTraces = stackTraces;
+        }
+        
         /**
          * Parses until an expected field with the given name is found
          * (without considering fields of inner objects).
+         * Since fields are sorted, the search stops at the first field 
+         * that sorts after the name. 
+         * Note, this method allocates memory to encode the name; 
+         * use field(StringValue) with a constant name for highest performance.
          * 
          * @throws FormatException 
          *         If a field with the expected name was not found.
          */
         public void field(String name) {
+            if (!tryField(name)) {
+                throw formatException("no field named '" + name + "'");
+            }
+        }
+        
+        /**
+         * Like field(String) but the name is given as a StringValue, 
+         * typically a constant created once. Does not allocate memory.
+         */
+        public void field(StringValue name) {
+            if (!tryField(name.buffer, name.offset, name.size)) {
+                throw formatException("no field named '" + name + "'");
+            }
+        }
+        
+        /**
+         * Like field(String) but the name is given as UTF-8 bytes.
+         * Does not allocate memory.
+         */
+        public void field(byte[] utf8Name) {
+            if (!tryField(utf8Name, 0, utf8Name.length)) {
+                StringValue name = new StringValue();
+                name.set(utf8Name, 0, utf8Name.length);
+                throw formatException("no field named '" + name + "'");
+            }
+        }
+        
+        /**
+         * Like field(String), but returns false instead of throwing an exception
+         * if there is no field with the given name. Useful for optional fields.
+         * After a miss, the parser is positioned before the first field that 
+         * sorts after the name (or before the end of the object), so a following 
+         * lookup of a later name works.
+         */
+        public boolean tryField(String name) {
+            byte[] utf8;
+            try {
+                utf8 = name.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new Error(e);
+            }
+            return tryField(utf8, 0, utf8.length);
+        }
+        
+        /** Like tryField(String), see also field(StringValue). */
+        public boolean tryField(StringValue name) {
+            return tryField(name.buffer, name.offset, name.size);
+        }
+        
+        /** Like tryField(String), see also field(byte[]). */
+        public boolean tryField(byte[] utf8Name) {
+            return tryField(utf8Name, 0, utf8Name.length);
+        }
+        
+        private boolean tryField(byte[] nameBuffer, int nameOffset, int nameSize) {
             while (nextField()) {
-                if (nameEquals(name)) {
-                    return;
+                StringValue n = this.name;
+                int c = Util.compare(n.buffer, n.offset, n.size, nameBuffer, nameOffset, nameSize);
+                if (c == 0) {
+                    return true;
+                } else if (c > 0) {
+                    break;
                 }
             }
             
-            throw new FormatException("no field named '" + name + "'");
+            // Rewinds to before the field that sorted after the name, or the end-of-object.
+            offset = fieldOffset;
+            state = STATE_BEFORE_FIELD;
+            return false;
         }
         
         /**
@@ -113,13 +277,8 @@ public class BinsonLight {
                 parseBegin();
             } else if (state == STATE_END_OF_OBJECT) {
                 throw new IllegalStateException("reached end-of-object");
-            } else if (state == STATE_BEFORE_OBJECT) {
-                state = STATE_BEFORE_FIELD;
-                while (nextField()) {}
-                state = STATE_BEFORE_FIELD;
-            } else if (state == STATE_BEFORE_ARRAY) {
-                state = STATE_BEFORE_ARRAY_VALUE;
-                while (nextArrayValue()) {}         
+            } else if (state == STATE_BEFORE_OBJECT || state == STATE_BEFORE_ARRAY) {
+                skipContainer();
                 state = STATE_BEFORE_FIELD;
             }
             
@@ -127,6 +286,7 @@ public class BinsonLight {
                 throw new IllegalStateException("not ready to read a field, state: " + state);
             }
             
+            fieldOffset = offset;
             byte typeBeforeName = readOne();
             if (typeBeforeName == END) {
                 state = STATE_END_OF_OBJECT;
@@ -134,6 +294,7 @@ public class BinsonLight {
             }
             parseFieldName(typeBeforeName);
             
+            valueOffset = offset;
             byte typeBeforeValue = readOne();
             parseValue(typeBeforeValue, STATE_BEFORE_FIELD);
             
@@ -141,15 +302,8 @@ public class BinsonLight {
         }
 
         public boolean nextArrayValue() {
-            if (state == STATE_BEFORE_ARRAY) {
-                state = STATE_BEFORE_ARRAY_VALUE;
-                while (nextArrayValue()) {}
-                state = STATE_BEFORE_ARRAY_VALUE;
-            }
-            
-            if (state == STATE_BEFORE_OBJECT) {
-                state = STATE_BEFORE_FIELD;
-                while (nextField()) {}
+            if (state == STATE_BEFORE_ARRAY || state == STATE_BEFORE_OBJECT) {
+                skipContainer();
                 state = STATE_BEFORE_ARRAY_VALUE;
             }
         
@@ -157,6 +311,7 @@ public class BinsonLight {
                 throw new IllegalStateException("not before array value, " + state);
             }
         
+            valueOffset = offset;
             byte typeByte = readOne();
             if (typeByte == END_ARRAY) {
                 state = STATE_END_OF_ARRAY;
@@ -167,6 +322,127 @@ public class BinsonLight {
             return true;
         }
 
+        /**
+         * Reads consecutive integer values of the current array into 
+         * dest[destOffset, destOffset + length). Reading stops after 'length' values,
+         * at the end of the array, or at the first value that is not an integer.
+         * That value is not consumed; it can be read with nextArrayValue() as usual.
+         * Must be called when the parser is positioned before an array value, 
+         * for example, after goIntoArray().
+         * Afterwards, the last value read is the last value parsed, for example 
+         * for getRawValue().
+         * 
+         * @return The number of values read.
+         * @throws IllegalStateException if the parser is not before an array value.
+         */
+        public int nextIntegers(long[] dest, int destOffset, int length) {
+            checkBeforeArrayValue();
+            
+            byte[] buffer = this.buffer;
+            int count = 0;
+            
+            while (count < length) {
+                checkAvailable(1);
+                byte typeByte = buffer[offset];
+                if (typeByte < INTEGER1 || typeByte > INTEGER8) {
+                    break;
+                }
+                valueOffset = offset;
+                offset++;
+                dest[destOffset + count] = parseInteger(1 << (typeByte & INT_LENGTH_MASK));
+                count++;
+            }
+            
+            if (count > 0) {
+                type = ValueType.INTEGER;
+                integerValue = dest[destOffset + count - 1];
+                afterValueState = STATE_BEFORE_ARRAY_VALUE;
+            }
+            
+            return count;
+        }
+        
+        /**
+         * Like nextIntegers(long[], int, int), but also stops at the first integer 
+         * that does not fit in an int. That value is not consumed.
+         */
+        public int nextIntegers(int[] dest, int destOffset, int length) {
+            checkBeforeArrayValue();
+            
+            byte[] buffer = this.buffer;
+            int count = 0;
+            
+            while (count < length) {
+                checkAvailable(1);
+                byte typeByte = buffer[offset];
+                if (typeByte < INTEGER1 || typeByte > INTEGER8) {
+                    break;
+                }
+                
+                int start = offset;
+                offset++;
+                long value = parseInteger(1 << (typeByte & INT_LENGTH_MASK));
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    offset = start;
+                    break;
+                }
+                
+                dest[destOffset + count] = (int) value;
+                valueOffset = start;
+                count++;
+            }
+            
+            if (count > 0) {
+                type = ValueType.INTEGER;
+                integerValue = dest[destOffset + count - 1];
+                afterValueState = STATE_BEFORE_ARRAY_VALUE;
+            }
+            
+            return count;
+        }
+        
+        /**
+         * Reads consecutive double values of the current array into 
+         * dest[destOffset, destOffset + length). Reading stops after 'length' values,
+         * at the end of the array, or at the first value that is not a double.
+         * That value is not consumed; it can be read with nextArrayValue() as usual.
+         * 
+         * @return The number of values read.
+         * @throws IllegalStateException if the parser is not before an array value.
+         */
+        public int nextDoubles(double[] dest, int destOffset, int length) {
+            checkBeforeArrayValue();
+            
+            byte[] buffer = this.buffer;
+            int count = 0;
+            
+            while (count < length) {
+                checkAvailable(1);
+                if (buffer[offset] != DOUBLE) {
+                    break;
+                }
+                checkAvailable(9);
+                dest[destOffset + count] = Util.bytesToDoubleLE(buffer, offset + 1);
+                valueOffset = offset;
+                offset += 9;
+                count++;
+            }
+            
+            if (count > 0) {
+                type = ValueType.DOUBLE;
+                doubleValue = dest[destOffset + count - 1];
+                afterValueState = STATE_BEFORE_ARRAY_VALUE;
+            }
+            
+            return count;
+        }
+
+        private void checkBeforeArrayValue() {
+            if (state != STATE_BEFORE_ARRAY_VALUE) {
+                throw new IllegalStateException("not before array value, " + state);
+            }
+        }
+
         /**
          * Checks whether current field name equals a provided one.
          */
@@ -182,11 +458,19 @@ public class BinsonLight {
         public boolean nameEquals(String name) {
             return this.name.toString().equals(name);
         }
+        
+        /**
+         * Checks whether current field name equals the provided UTF-8 bytes.
+         */
+        public boolean nameEquals(byte[] utf8Name) {
+            return Util.equals(name.buffer, name.offset, name.size, utf8Name, 0, utf8Name.length);
+        }
 
         public void goIntoObject() {
             if (state != STATE_BEFORE_OBJECT) {
                 throw new IllegalStateException("unexpected parser state, not an object field");
             }
+            pushNesting();
             state = STATE_BEFORE_FIELD;
         }
 
@@ -194,39 +478,207 @@ public class BinsonLight {
             if (state != STATE_BEFORE_ARRAY) {
                 throw new IllegalStateException("unexpected parser state, not an array field");
             }
+            pushNesting();
             state = STATE_BEFORE_ARRAY_VALUE;
         }
 
         public void goUpToObject() {
-            if (state == STATE_BEFORE_ARRAY_VALUE) {
-                while (nextArrayValue()) {}
+            skipToEndOfContainer();
+            if (depth > 0) {
+                depth--;
+            }
+            state = STATE_BEFORE_FIELD;
+        }
+
+        public void goUpToArray() {
+            skipToEndOfContainer();
+            if (depth > 0) {
+                depth--;
+            }
+            state = STATE_BEFORE_ARRAY_VALUE;
+        }
+        
+        /**
+         * Leaves 'levels' entered objects or arrays in one call. Afterwards, the parser
+         * is positioned before the next field or array value of the container 
+         * it is then in, like after goUpToObject() or goUpToArray().
+         * 
+         * @throws IllegalArgumentException If levels is negative or larger than getDepth().
+         */
+        public void goUp(int levels) {
+            if (levels < 0 || levels > depth) {
+                throw new IllegalArgumentException("cannot go up " + levels + " levels from depth " + depth);
             }
             
-            if (state == STATE_BEFORE_FIELD) {
-                while (nextField()) {}
+            for (int i = 0; i < levels; i++) {
+                skipToEndOfContainer();
+                depth--;
+                boolean isArrayValue = (nesting[depth >> 6] & (1L << (depth & 63))) != 0;
+                state = isArrayValue ? STATE_BEFORE_ARRAY_VALUE : STATE_BEFORE_FIELD;
+            }
+        }
+        
+        /** 
+         * Returns the number of objects and arrays entered with goIntoObject() 
+         * and goIntoArray() and not yet left; 0 in the top-level object.
+         */
+        public int getDepth() {
+            return depth;
+        }
+        
+        /**
+         * Saves the position of the parser in 'mark', including the nesting and 
+         * the last value parsed, so that reset(Mark) can return to it. 
+         * Does not allocate memory unless the nesting is deeper than before.
+         * 
+         * @return The 'mark' argument.
+         */
+        public Mark mark(Mark mark) {
+            mark.buffer = buffer;
+            mark.offset = offset;
+            mark.state = state;
+            mark.afterValueState = afterValueState;
+            mark.fieldOffset = fieldOffset;
+            mark.valueOffset = valueOffset;
+            mark.depth = depth;
+            int words = (depth >> 6) + 1;
+            if (mark.nesting.length < words) {
+                mark.nesting = new long[nesting.length];
             }
+            System.arraycopy(nesting, 0, mark.nesting, 0, words);
             
-            if (state != STATE_END_OF_OBJECT && state != STATE_END_OF_ARRAY) {
-                throw new IllegalStateException("unexpected parser state, " + state);
+            mark.type = type;
+            mark.booleanValue = booleanValue;
+            mark.integerValue = integerValue;
+            mark.doubleValue = doubleValue;
+            mark.name.set(name.buffer, name.offset, name.size);
+            mark.stringValue.set(stringValue.buffer, stringValue.offset, stringValue.size);
+            mark.bytesValue.set(bytesValue.buffer, bytesValue.offset, bytesValue.size);
+            return mark;
+        }
+        
+        /** Like mark(Mark), but returns a new Mark. */
+        public Mark mark() {
+            return mark(new Mark());
+        }
+        
+        /**
+         * Moves the parser back (or forward) to a position saved with mark(Mark).
+         * The mark can be used again.
+         */
+        public void reset(Mark mark) {
+            buffer = mark.buffer;
+            offset = mark.offset;
+            state = mark.state;
+            afterValueState = mark.afterValueState;
+            fieldOffset = mark.fieldOffset;
+            valueOffset = mark.valueOffset;
+            depth = mark.depth;
+            int words = (depth >> 6) + 1;
+            if (nesting.length < words) {
+                nesting = new long[mark.nesting.length];
             }
+            System.arraycopy(mark.nesting, 0, nesting, 0, words);
             
-            state = STATE_BEFORE_FIELD;
+            type = mark.type;
+            booleanValue = mark.booleanValue;
+            integerValue = mark.integerValue;
+            doubleValue = mark.doubleValue;
+            name.set(mark.name.buffer, mark.name.offset, mark.name.size);
+            stringValue.set(mark.stringValue.buffer, mark.stringValue.offset, mark.stringValue.size);
+            bytesValue.set(mark.bytesValue.buffer, mark.bytesValue.offset, mark.bytesValue.size);
         }
-
-        public void goUpToArray() {
-            if (state == STATE_BEFORE_ARRAY_VALUE) {
-                while (nextArrayValue()) {}
+        
+        private void pushNesting() {
+            int word = depth >> 6;
+            if (word == nesting.length) {
+                long[] bigger = new long[nesting.length * 2];
+                System.arraycopy(nesting, 0, bigger, 0, nesting.length);
+                nesting = bigger;
             }
             
-            if (state == STATE_BEFORE_FIELD) {
-                while (nextField()) {}
+            long bit = 1L << (depth & 63);
+            if (afterValueState == STATE_BEFORE_ARRAY_VALUE) {
+                nesting[word] |= bit;
+            } else {
+                nesting[word] &= ~bit;
             }
+            depth++;
+        }
+        
+        /**
+         * A saved parser position, see Parser.mark(Mark). Create one and 
+         * reuse it for many marks.
+         */
+        public static class Mark {
+            private byte[] buffer;
+            private int offset;
+            private int state = STATE_ZERO;
+            private int afterValueState;
+            private int fieldOffset;
+            private int valueOffset;
+            private int depth;
+            private long[] nesting = new long[1];
             
-            if (state != STATE_END_OF_OBJECT && state != STATE_END_OF_ARRAY) {
-                throw new IllegalStateException("unexpected parser state, " + state);
+            private ValueType type;
+            private boolean booleanValue;
+            private long integerValue;
+            private double doubleValue;
+            private final StringValue name = new StringValue();
+            private final StringValue stringValue = new StringValue();
+            private final BytesValue bytesValue = new BytesValue();
+        }
+
+        /**
+         * Sets 'dest' to the raw Binson bytes of the last value parsed, 
+         * from its type byte to its last byte. The bytes can be written as-is with 
+         * Writer.raw(). For an object or an array, the whole value is scanned and 
+         * the parser is positioned after it; goIntoObject()/goIntoArray() cannot be 
+         * used for that value after this call.
+         * 
+         * @throws IllegalStateException 
+         *         If no value has been parsed, or if the parser has already 
+         *         entered the object or array value.
+         */
+        public void getRawValue(BytesValue dest) {
+            int start = valueOffset;
+            
+            if (state == STATE_BEFORE_OBJECT || state == STATE_BEFORE_ARRAY) {
+                skipContainer();
+                state = afterValueState;
+            } else if (type == null || type == ValueType.OBJECT || type == ValueType.ARRAY
+                    || state != afterValueState) {
+                throw new IllegalStateException("no value to get, state: " + state);
             }
             
-            state = STATE_BEFORE_ARRAY_VALUE;
+            dest.set(buffer, start, offset - start);
+        }
+        
+        /**
+         * Sets 'dest' to the raw Binson bytes of the last field parsed, 
+         * name and value. Like getRawValue(), but the span starts at the type byte
+         * of the field name. Consecutive fields have adjacent spans.
+         * 
+         * @throws IllegalStateException 
+         *         If the last value parsed was not a field value, or for the same
+         *         reasons as getRawValue().
+         */
+        public void getRawField(BytesValue dest) {
+            if (afterValueState != STATE_BEFORE_FIELD) {
+                throw new IllegalStateException("last value is not a field value");
+            }
+            getRawValue(dest);
+            dest.set(buffer, fieldOffset, dest.offset + dest.size - fieldOffset);
+        }
+
+        /**
+         * Returns the current offset in the buffer, the position of the next byte 
+         * to parse. When nextField() has returned false for the top-level object,
+         * this is the offset of the first byte after the object; for a buffer with 
+         * concatenated Binson objects, this is where the next object starts.
+         */
+        public int getOffset() {
+            return offset;
         }
 
         /** Returns the type of the last value parsed. */
@@ -264,67 +716,116 @@ public class BinsonLight {
             return bytesValue;
         }
 
+        /**
+         * Skips the rest of the current object or array (the one entered last)
+         * so that the parser is positioned after its end marker. 
+         * If the last value parsed is an object or array that has not been entered, 
+         * that value is skipped first.
+         */
+        private void skipToEndOfContainer() {
+            if (state == STATE_BEFORE_OBJECT || state == STATE_BEFORE_ARRAY) {
+                skipContainer();
+                skipContainer();
+            } else if (state == STATE_BEFORE_FIELD || state == STATE_BEFORE_ARRAY_VALUE) {
+                skipContainer();
+            } else if (state != STATE_END_OF_OBJECT && state != STATE_END_OF_ARRAY) {
+                throw new IllegalStateException("unexpected parser state, " + state);
+            }
+        }
+        
+        /**
+         * Skips bytes up to and including the end marker of the current 
+         * object or array. Iterative with a depth counter; only type bytes and 
+         * lengths are read, values are not decoded. Nesting is not validated, 
+         * any end marker decreases the depth.
+         */
+        private void skipContainer() {
+            byte[] buffer = this.buffer;
+            int depth = 1;
+            
+            while (true) {
+                checkAvailable(1);
+                byte typeByte = buffer[offset++];
+                int token = TOKENS[typeByte & 0xff];
+                int kind = token & 0xff;
+                
+                if (kind >= KIND_BOOLEAN && kind <= KIND_DOUBLE) {
+                    offset += token >> 8;
+                    continue;
+                }
+                
+                switch (kind) {
+                case KIND_BEGIN:
+                case KIND_BEGIN_ARRAY:
+                    depth++;
+                    break;
+                case KIND_END:
+                case KIND_END_ARRAY:
+                    if (--depth == 0) {
+                        return;
+                    }
+                    break;
+                case KIND_STRING:
+                case KIND_BYTES:
+                    long len = parseInteger(token >> 8);
+                    if (len < 0 || len >= buffer.length - offset) {
+                        throw formatException("Bad length (" + len + "), extends beyond the input buffer.");
+                    }
+                    offset += (int) len;
+                    break;
+                default:
+                    throw formatException("Unexpected type byte: " + typeByte + ".");
+                }
+            }
+        }
+        
         private void parseValue(byte typeByte, int afterValueState) {
-            switch (typeByte) {
-            case BEGIN:
+            this.afterValueState = afterValueState;
+            int token = TOKENS[typeByte & 0xff];
+            int kind = token & 0xff;
+            
+            switch (kind) {
+            case KIND_BEGIN:
                 type = ValueType.OBJECT;
                 state = STATE_BEFORE_OBJECT;
-                break;
-            case BEGIN_ARRAY:
+                return;
+            case KIND_BEGIN_ARRAY:
                 type = ValueType.ARRAY;
                 state = STATE_BEFORE_ARRAY;
-                break;
-            case FALSE:
-            case TRUE:
-                type = ValueType.BOOLEAN;
+                return;
+            case KIND_BOOLEAN:
                 booleanValue = typeByte == TRUE;
-                state = afterValueState;
                 break;
-            case DOUBLE:
-                type = ValueType.DOUBLE;
+            case KIND_INTEGER:
+                integerValue = parseInteger(token >> 8);
+                break;
+            case KIND_DOUBLE:
                 parseDouble();
-                state = afterValueState;
                 break;
-            case INTEGER1:
-            case INTEGER2:
-            case INTEGER4:
-            case INTEGER8:
-                type = ValueType.INTEGER;
-                integerValue = parseInteger(typeByte);            
-                state = afterValueState;
+            case KIND_STRING:
+                parseString(token >> 8, stringValue);
                 break;
-            case STRING1:
-            case STRING2:
-            case STRING4:
-                type = ValueType.STRING;
-                parseString(typeByte, getString());
-                state = afterValueState;
-                break;
-            case BYTES1:
-            case BYTES2:
-            case BYTES4:
-                type = ValueType.BYTES;
-                parseBytes(typeByte);
-                state = afterValueState;
+            case KIND_BYTES:
+                parseBytes(token >> 8);
                 break;
             default:
-                throw new FormatException("Unexpected type byte: " + typeByte + ".");
+                throw formatException("Unexpected type byte: " + typeByte + ".");
             }
+            
+            type = KIND_TYPES[kind];
+            state = afterValueState;
         }
 
         private void parseFieldName(byte typeBeforeName) {
-            switch (typeBeforeName) {
-            case STRING1:
-            case STRING2:
-            case STRING4:
-                parseString(typeBeforeName, getName());
-                break;
-            default:
-                throw new FormatException("unexpected type: " + typeBeforeName);
+            int token = TOKENS[typeBeforeName & 0xff];
+            if ((token & 0xff) != KIND_STRING) {
+                throw formatException("unexpected type: " + typeBeforeName);
             }
+            parseString(token >> 8, name);
         }
         
         private void parseDouble() {
+            checkAvailable(8);
             doubleValue = Util.bytesToDoubleLE(buffer, offset);
             offset += 8;
         }
@@ -332,81 +833,79 @@ public class BinsonLight {
         private void parseBegin() {
             int type = readOne();
             if (type != BEGIN) {
-                throw new FormatException("Expected BEGIN, got " + type + ".");
+                throw formatException("Expected BEGIN, got " + type + ".");
             }
             state = STATE_BEFORE_FIELD;
         }
         
-        private void parseString(byte typeByte, StringValue s) {
-            long longLen = parseInteger(typeByte);
+        private void parseString(int lengthWidth, StringValue s) {
+            long longLen = parseInteger(lengthWidth);
             if (longLen < 0) {
-                throw new FormatException("Bad string length, " + longLen + ".");
+                throw formatException("Bad string length, " + longLen + ".");
             }
             
             int len = (int) longLen;
-            if (len < 0) throw new FormatException("Bad string length, " + len + ".");
+            if (len < 0) throw formatException("Bad string length, " + len + ".");
             
             if (offset + len >= buffer.length) {
-            	throw new FormatException("Bad byte length of string (" + len + "), extends beyond the input buffer.");
+            	throw formatException("Bad byte length of string (" + len + "), extends beyond the input buffer.");
             }
             
             s.set(buffer, offset, len);
             this.offset += len;
         }
         
-        private void parseBytes(byte typeByte) {
-            long longLen = parseInteger(typeByte);
+        private void parseBytes(int lengthWidth) {
+            long longLen = parseInteger(lengthWidth);
             if (longLen < 0) {
-                throw new FormatException("Bad length of bytes, " + longLen + ".");
+                throw formatException("Bad length of bytes, " + longLen + ".");
             }
             
             int len = (int) longLen;
             
-            if (len < 0) throw new FormatException("Bad len, " + len + ".");
+            if (len < 0) throw formatException("Bad len, " + len + ".");
             
             if (offset + len >= buffer.length) {
-            	throw new FormatException("Bad length of bytes (" + len + "), extends beyond the input buffer.");
+            	throw formatException("Bad length of bytes (" + len + "), extends beyond the input buffer.");
             }
             
             bytesValue.set(buffer, offset, len);
             this.offset += len;
         }
         
-        private long parseInteger(byte typeByte) {
-            int intType = typeByte & INT_LENGTH_MASK;
-            long integer;
+        /** Reads a little-endian integer of 'width' bytes: 1, 2, 4 or 8. */
+        private long parseInteger(int width) {
+            checkAvailable(width);
+            byte[] buffer = this.buffer;
+            int offset = this.offset;
+            this.offset = offset + width;
             
-            switch (intType) {
-            case ONE_BYTE:
-                integer = buffer[offset];
-                offset++;
-                break;
-                
-            case TWO_BYTES:
-                integer = Util.bytesToShortLE(buffer, offset);
-                offset += 2;
-                break;
-                
-            case FOUR_BYTES:
-                integer = Util.bytesToIntLE(buffer, offset);
-                offset += 4;
-                break;
-                
-            case EIGHT_BYTES:
-                integer = Util.bytesToLongLE(buffer, offset);
-                offset += 8;
-                break;
-                
-            default:
-                throw new Error("never happens, intType: " + intType);
+            if (width == 1) {
+                return buffer[offset];
+            } else if (width == 2) {
+                return Util.bytesToShortLE(buffer, offset);
+            } else if (width == 4) {
+                return Util.bytesToIntLE(buffer, offset);
+            } else {
+                return Util.bytesToLongLE(buffer, offset);
             }
-            
-            return integer;
+        }
+        
+        private FormatException formatException(String message) {
+            return new FormatException(message, stackTraces);
         }
         
         private final byte readOne() {
+            checkAvailable(1);
             return buffer[offset++];
         }
+        
+        /** Throws a FormatException if fewer than 'size' bytes are left to parse. */
+        private void checkAvailable(int size) {
+            if (size > buffer.length - offset) {
+                throw formatException("Unexpected end of input at offset " + offset + ".");
+            }
+        }
     }
 
     /**
@@ -415,21 +914,59 @@ public class BinsonLight {
      */
     public static class FormatException extends RuntimeException {
         private static final long serialVersionUID = 1L;
-        public FormatException(String message) { super(message); }
+        
+        /** False while the superclass constructor runs, so it does not fill in the stack trace. */
+        private final boolean stackTrace;
+        
+        public FormatException(String message) { this(message, true); }
+        
+        /**
+         * Creates a FormatException, without a stack trace if 'stackTrace' is false.
+         * Filling in the stack trace is the main cost of creating an exception.
+         */
+        public FormatException(String message, boolean stackTrace) {
+            super(message);
+            this.stackTrace = stackTrace;
+            if (stackTrace) {
+                fillInStackTrace();
+            }
+        }
+        
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return stackTrace ? super.fillInStackTrace() : this;
+        }
     }
     
     /**
      * Writes Binson tokens to an OutputStream. The writer is low-level and very simple.
      * There is no validation, an instance of this class can generate invalid Binson bytes.
      * Make sure fields are written in alphabetical order. This is required to produce valid Binson.
+     * The writer does not allocate memory per value written; an instance can be reused 
+     * for many messages, see reset().
      */
     public static class Writer {
         private OutputStream out;
         
+        /** Scratch buffer for type byte and integer/double bytes. */
+        private final byte[] scratch = new byte[9];
+        
+        /** Buffer for bulk writes of arrays, allocated when first needed. */
+        private byte[] chunk;
+        private static final int CHUNK_SIZE = 1024;
+        
         public Writer(OutputStream out) {
             this.out = out;
         }
         
+        /**
+         * Sets a new OutputStream to write to. Allows a Writer instance 
+         * to be reused.
+         */
+        public void reset(OutputStream out) {
+            this.out = out;
+        }
+        
         public Writer begin() throws IOException {
             out.write(BEGIN);
             return this;
@@ -461,10 +998,73 @@ public class BinsonLight {
         }
         
         public Writer doubl(double value) throws IOException {
-            byte[] bytes = new byte[9];
-            bytes[0] = DOUBLE;
-            Util.doubleToBytesLE(value, bytes, 1);
-            out.write(bytes);
+            scratch[0] = DOUBLE;
+            Util.doubleToBytesLE(value, scratch, 1);
+            out.write(scratch, 0, 9);
+            return this;
+        }
+        
+        /**
+         * Writes an array with the integers in values[offset, offset + length).
+         * Same result as beginArray(), integer() for each value, endArray(), but faster.
+         */
+        public Writer integers(long[] values, int offset, int length) throws IOException {
+            byte[] buffer = chunk();
+            int pos = 0;
+            buffer[pos++] = BEGIN_ARRAY;
+            
+            for (int i = offset; i < offset + length; i++) {
+                if (pos > CHUNK_SIZE - 9) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                pos = putIntegerOrLength(INTEGER1, values[i], buffer, pos);
+            }
+            
+            writeChunkWithEndArray(buffer, pos);
+            return this;
+        }
+        
+        /**
+         * Writes an array with the integers in values[offset, offset + length).
+         */
+        public Writer integers(int[] values, int offset, int length) throws IOException {
+            byte[] buffer = chunk();
+            int pos = 0;
+            buffer[pos++] = BEGIN_ARRAY;
+            
+            for (int i = offset; i < offset + length; i++) {
+                if (pos > CHUNK_SIZE - 9) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                pos = putIntegerOrLength(INTEGER1, values[i], buffer, pos);
+            }
+            
+            writeChunkWithEndArray(buffer, pos);
+            return this;
+        }
+        
+        /**
+         * Writes an array with the doubles in values[offset, offset + length).
+         * Same result as beginArray(), doubl() for each value, endArray(), but faster.
+         */
+        public Writer doubles(double[] values, int offset, int length) throws IOException {
+            byte[] buffer = chunk();
+            int pos = 0;
+            buffer[pos++] = BEGIN_ARRAY;
+            
+            for (int i = offset; i < offset + length; i++) {
+                if (pos > CHUNK_SIZE - 9) {
+                    out.write(buffer, 0, pos);
+                    pos = 0;
+                }
+                buffer[pos] = DOUBLE;
+                Util.doubleToBytesLE(values[i], buffer, pos + 1);
+                pos += 9;
+            }
+            
+            writeChunkWithEndArray(buffer, pos);
             return this;
         }
         
@@ -478,46 +1078,322 @@ public class BinsonLight {
             return this;
         }
         
+        /** Writes a string given its UTF-8 bytes in buffer[offset, offset + size). */
+        public Writer string(byte[] buffer, int offset, int size) throws IOException {
+            writeIntegerOrLength(STRING1, size);
+            out.write(buffer, offset, size);
+            return this;
+        }
+        
         public Writer bytes(byte[] value) throws IOException {
             writeIntegerOrLength(BYTES1, value.length);
             out.write(value);
             return this;
         }
         
+        /**
+         * Writes a bytes value with the remaining bytes of 'value', from its position
+         * to its limit. The buffer position is advanced to the limit. 
+         * For a heap buffer the bytes are written directly from its backing array.
+         */
+        public Writer bytes(ByteBuffer value) throws IOException {
+            int size = value.remaining();
+            writeIntegerOrLength(BYTES1, size);
+            
+            if (value.hasArray()) {
+                out.write(value.array(), value.arrayOffset() + value.position(), size);
+                value.position(value.limit());
+            } else {
+                byte[] buffer = chunk();
+                while (value.hasRemaining()) {
+                    int n = Math.min(value.remaining(), CHUNK_SIZE);
+                    value.get(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+            
+            return this;
+        }
+        
+        /**
+         * Writes a bytes value with 'length' bytes read from 'in'. The length is 
+         * written first, then the bytes are copied in chunks; the whole value is never
+         * held in memory.
+         * 
+         * @throws EOFException If 'in' ends before 'length' bytes have been read.
+         */
+        public Writer bytes(InputStream in, int length) throws IOException {
+            writeIntegerOrLength(BYTES1, checkLength(length));
+            
+            byte[] buffer = chunk();
+            int left = length;
+            while (left > 0) {
+                int n = in.read(buffer, 0, Math.min(left, CHUNK_SIZE));
+                if (n < 0) {
+                    throw new EOFException("expected " + left + " more bytes");
+                }
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+            
+            return this;
+        }
+        
+        /**
+         * Writes a bytes value with 'length' bytes of 'file' starting at 'position'.
+         * The bytes are sent with FileChannel.transferTo(); when the Writer writes to 
+         * a FileOutputStream, the transfer goes directly to its channel, which
+         * allows the operating system to copy without passing through the Java heap.
+         * 
+         * @throws EOFException If the file ends before 'length' bytes have been sent.
+         */
+        public Writer bytes(FileChannel file, long position, int length) throws IOException {
+            writeIntegerOrLength(BYTES1, checkLength(length));
+            
+            WritableByteChannel target = out instanceof FileOutputStream 
+                    ? ((FileOutputStream) out).getChannel() 
+                    : Channels.newChannel(out);
+            
+            long pos = position;
+            long end = position + length;
+            while (pos < end) {
+                long n = file.transferTo(pos, end - pos, target);
+                if (n <= 0 && pos >= file.size()) {
+                    throw new EOFException("expected " + (end - pos) + " more bytes");
+                }
+                pos += n;
+            }
+            
+            return this;
+        }
+        
         public Writer name(String name) throws IOException {
             string(name);
             return this;
         }
         
+        /**
+         * Writes already encoded Binson bytes as-is, for example a value 
+         * from Parser.getRawValue(). The bytes are not validated.
+         */
+        public Writer raw(byte[] buffer, int offset, int size) throws IOException {
+            out.write(buffer, offset, size);
+            return this;
+        }
+        
         /** Calls flush() on the OutputStream. */
         public void flush() throws IOException {
             out.flush();
         }
         
         private void writeIntegerOrLength(int baseType, long value) throws IOException {
-            int type;
-            byte[] buffer;
-            
+            int size = putIntegerOrLength(baseType, value, scratch, 0);
+            out.write(scratch, 0, size);
+        }
+        
+        /**
+         * Puts type byte and integer bytes in buffer at 'pos'. 
+         * Returns the position after the last byte written.
+         */
+        private static int putIntegerOrLength(int baseType, long value, byte[] buffer, int pos) {
             if (value >= -TWO_TO_7 && value < TWO_TO_7) {
-                type = baseType | ONE_BYTE;
-                buffer = new byte[1];
-                buffer[0] = (byte) value;
+                buffer[pos] = (byte) (baseType | ONE_BYTE);
+                buffer[pos + 1] = (byte) value;
+                return pos + 2;
             } else if (value >= -TWO_TO_15 && value < TWO_TO_15) {
-                type = baseType | TWO_BYTES;
-                buffer = new byte[2];
-                Util.shortToBytesLE((int) value, buffer, 0);
+                buffer[pos] = (byte) (baseType | TWO_BYTES);
+                Util.shortToBytesLE((int) value, buffer, pos + 1);
+                return pos + 3;
             } else if (value >= -TWO_TO_31 && value < TWO_TO_31) {
-                type = baseType | FOUR_BYTES;
-                buffer = new byte[4];
-                Util.intToBytesLE((int) value, buffer, 0);
+                buffer[pos] = (byte) (baseType | FOUR_BYTES);
+                Util.intToBytesLE((int) value, buffer, pos + 1);
+                return pos + 5;
             } else {
-                type = baseType | EIGHT_BYTES;
-                buffer = new byte[8];
-                Util.longToBytesLE(value, buffer, 0);
+                buffer[pos] = (byte) (baseType | EIGHT_BYTES);
+                Util.longToBytesLE(value, buffer, pos + 1);
+                return pos + 9;
+            }
+        }
+        
+        private static int checkLength(int length) {
+            if (length < 0) {
+                throw new IllegalArgumentException("bad length, " + length);
+            }
+            return length;
+        }
+        
+        private byte[] chunk() {
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            return chunk;
+        }
+        
+        private void writeChunkWithEndArray(byte[] buffer, int pos) throws IOException {
+            if (pos == CHUNK_SIZE) {
+                out.write(buffer, 0, pos);
+                pos = 0;
             }
+            buffer[pos++] = END_ARRAY;
+            out.write(buffer, 0, pos);
+        }
+    }
+    
+    /**
+     * Computes the exact number of bytes a sequence of Writer calls produces, 
+     * without encoding anything. The methods mirror those of Writer. 
+     * Useful to allocate a buffer of the right size or to write a length prefix 
+     * before the payload. Strings given as String are measured without 
+     * UTF-8 encoding them.
+     */
+    public static class Sizer {
+        private long size;
+        
+        /** Returns the number of bytes counted so far. */
+        public long size() {
+            return size;
+        }
+        
+        /** Sets the count to zero. */
+        public Sizer reset() {
+            size = 0;
+            return this;
+        }
+        
+        public Sizer begin() {
+            size++;
+            return this;
+        }
+        
+        public Sizer end() {
+            size++;
+            return this;
+        }
+        
+        public Sizer beginArray() {
+            size++;
+            return this;
+        }
+        
+        public Sizer endArray() {
+            size++;
+            return this;
+        }
+        
+        public Sizer bool(boolean value) {
+            size++;
+            return this;
+        }
+        
+        public Sizer integer(long value) {
+            size += integerOrLengthSize(value);
+            return this;
+        }
+        
+        public Sizer doubl(double value) {
+            size += 9;
+            return this;
+        }
+        
+        public Sizer string(String string) {
+            return string(utf8Length(string));
+        }
+        
+        public Sizer string(byte[] utf8Bytes) {
+            return string(utf8Bytes.length);
+        }
+        
+        public Sizer string(byte[] buffer, int offset, int size) {
+            return string(size);
+        }
+        
+        /** Counts a string with the given UTF-8 byte length. */
+        public Sizer string(int utf8Length) {
+            size += integerOrLengthSize(utf8Length) + utf8Length;
+            return this;
+        }
+        
+        public Sizer bytes(byte[] value) {
+            return bytes(value.length);
+        }
+        
+        /** Counts a bytes value with the given length, see also Writer.bytes(ByteBuffer) etc. */
+        public Sizer bytes(int length) {
+            size += integerOrLengthSize(length) + length;
+            return this;
+        }
+        
+        public Sizer name(String name) {
+            return string(name);
+        }
+        
+        public Sizer raw(byte[] buffer, int offset, int size) {
+            this.size += size;
+            return this;
+        }
+        
+        public Sizer integers(long[] values, int offset, int length) {
+            size += 2;
+            for (int i = offset; i < offset + length; i++) {
+                size += integerOrLengthSize(values[i]);
+            }
+            return this;
+        }
+        
+        public Sizer integers(int[] values, int offset, int length) {
+            size += 2;
+            for (int i = offset; i < offset + length; i++) {
+                size += integerOrLengthSize(values[i]);
+            }
+            return this;
+        }
+        
+        public Sizer doubles(double[] values, int offset, int length) {
+            size += 2 + 9L * length;
+            return this;
+        }
+        
+        /**
+         * Returns the number of bytes of the type byte and integer bytes
+         * that Writer uses for 'value'.
+         */
+        public static int integerOrLengthSize(long value) {
+            if (value >= -TWO_TO_7 && value < TWO_TO_7) {
+                return 2;
+            } else if (value >= -TWO_TO_15 && value < TWO_TO_15) {
+                return 3;
+            } else if (value >= -TWO_TO_31 && value < TWO_TO_31) {
+                return 5;
+            } else {
+                return 9;
+            }
+        }
+        
+        /**
+         * Returns the number of bytes of 's' encoded as UTF-8, the same
+         * as s.getBytes("UTF-8").length, without encoding. An unpaired 
+         * surrogate counts as one byte, as the encoder replaces it with '?'.
+         */
+        public static int utf8Length(String s) {
+            int len = s.length();
+            int result = len;
             
-            out.write(type);
-            out.write(buffer);
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    continue;
+                } else if (c < 0x800) {
+                    result += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len 
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    result += 2;
+                    i++;
+                } else if (c < '\uD800' || c > '\uDFFF') {
+                    result += 2;
+                }
+            }
+            
+            return result;
         }
     }
     
@@ -559,17 +1435,42 @@ public class BinsonLight {
         }
         
         public boolean equals(StringValue that) {
-            if (this.size != that.size) {
-                return false;
-            }
-            
-            for (int i = 0; i < this.size; i++) {
-                if (this.buffer[this.offset + i] != that.buffer[that.offset + i]) {
-                    return false;
-                }
-            }
-            
-            return true;
+            return Util.equals(this.buffer, this.offset, this.size, that.buffer, that.offset, that.size);
+        }
+        
+        /**
+         * Returns a hash code of the bytes. Consistent with equals(), so a StringValue
+         * can be used as a key in a hash map. Note that a StringValue is mutable;
+         * a value used as a key must not be modified.
+         */
+        public int hashCode() {
+            long h = hash64();
+            return (int) (h ^ (h >>> 32));
+        }
+        
+        /**
+         * Returns true if the bytes are well-formed UTF-8: no overlong encodings,
+         * no surrogates and no code points above U+10FFFF. The parser does not 
+         * validate strings; use this method when the input is not trusted.
+         */
+        public boolean isValidUtf8() {
+            return Util.isValidUtf8(buffer, offset, size);
+        }
+        
+        /** Returns a 64-bit hash of the bytes, see BytesValue.hash64(). */
+        public long hash64() {
+            return Util.hash64(buffer, offset, size);
+        }
+        
+        /**
+         * Compares this string with another one using the Binson field name 
+         * sort order: the UTF-8 bytes are compared as unsigned bytes, 
+         * if one string is a prefix of the other, the shorter one comes first.
+         * Returns a negative integer, zero, or a positive integer as this string 
+         * sorts before, equal to, or after 'that'.
+         */
+        public int compareTo(StringValue that) {
+            return Util.compare(this.buffer, this.offset, this.size, that.buffer, that.offset, that.size);
         }
         
         public String toString() {
@@ -596,6 +1497,45 @@ public class BinsonLight {
             this.size = size;
         }
         
+        public boolean equals(Object that) {
+            if (that == null || !(that instanceof BytesValue)) {
+                return false;
+            }
+            return equals((BytesValue) that);
+        }
+        
+        public boolean equals(BytesValue that) {
+            return Util.equals(this.buffer, this.offset, this.size, that.buffer, that.offset, that.size);
+        }
+        
+        /**
+         * Returns a hash code of the bytes. Consistent with equals(), so a BytesValue
+         * can be used as a key in a hash map without copying the bytes. 
+         * Note that a BytesValue is mutable; a value used as a key must not be modified.
+         */
+        public int hashCode() {
+            long h = hash64();
+            return (int) (h ^ (h >>> 32));
+        }
+        
+        /**
+         * Returns a 64-bit hash of the bytes. Binson is canonical, so equal values
+         * have equal bytes; the hash of a raw value from Parser.getRawValue() 
+         * can be used as a hash of the value itself. The hash is fast and well-mixed,
+         * but not cryptographic.
+         */
+        public long hash64() {
+            return Util.hash64(buffer, offset, size);
+        }
+        
+        /**
+         * Compares the bytes with another value, bytes are compared as unsigned, 
+         * a shorter value that is a prefix of a longer one comes first.
+         */
+        public int compareTo(BytesValue that) {
+            return Util.compare(this.buffer, this.offset, this.size, that.buffer, that.offset, that.size);
+        }
+        
         /**
          * Returns a byte array copy of the value.
          * This method allocates this.size bytes.
@@ -608,6 +1548,127 @@ public class BinsonLight {
     }
     
     private static final class Util {
+        private static final long C1 = 0x87c37b91114253d5L, C2 = 0x4cf5ad432745937fL;
+        
+        private static boolean equals(byte[] a, int aOffset, int aSize, byte[] b, int bOffset, int bSize) {
+            if (aSize != bSize) {
+                return false;
+            }
+            
+            for (int i = 0; i < aSize; i++) {
+                if (a[aOffset + i] != b[bOffset + i]) {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        private static boolean isValidUtf8(byte[] b, int offset, int size) {
+            int i = offset;
+            int end = offset + size;
+            
+            while (i < end) {
+                // ASCII fast path, eight bytes at a time.
+                while (i + 8 <= end && ((b[i] | b[i + 1] | b[i + 2] | b[i + 3] 
+                        | b[i + 4] | b[i + 5] | b[i + 6] | b[i + 7]) & 0x80) == 0) {
+                    i += 8;
+                }
+                
+                if (i == end) {
+                    break;
+                }
+                
+                int c = b[i] & 0xff;
+                if (c < 0x80) {
+                    i++;
+                    continue;
+                }
+                
+                int n;
+                if (c >= 0xc2 && c <= 0xdf) {
+                    n = 1;
+                } else if (c >= 0xe0 && c <= 0xef) {
+                    n = 2;
+                } else if (c >= 0xf0 && c <= 0xf4) {
+                    n = 3;
+                } else {
+                    return false;
+                }
+                
+                if (end - i <= n) {
+                    return false;
+                }
+                
+                int c1 = b[i + 1] & 0xff;
+                if ((c == 0xe0 && c1 < 0xa0) || (c == 0xed && c1 > 0x9f)
+                        || (c == 0xf0 && c1 < 0x90) || (c == 0xf4 && c1 > 0x8f)) {
+                    return false;
+                }
+                
+                for (int k = 1; k <= n; k++) {
+                    if ((b[i + k] & 0xc0) != 0x80) {
+                        return false;
+                    }
+                }
+                
+                i += n + 1;
+            }
+            
+            return true;
+        }
+        
+        private static int compare(byte[] a, int aOffset, int aSize, byte[] b, int bOffset, int bSize) {
+            int min = aSize < bSize ? aSize : bSize;
+            
+            for (int i = 0; i < min; i++) {
+                int x = a[aOffset + i] & 0xff;
+                int y = b[bOffset + i] & 0xff;
+                if (x != y) {
+                    return x - y;
+                }
+            }
+            
+            return aSize - bSize;
+        }
+        
+        /**
+         * 64-bit hash of arr[offset, offset + size). Eight bytes at a time 
+         * are mixed MurmurHash3-style, followed by the MurmurHash3 finalizer.
+         */
+        private static long hash64(byte[] arr, int offset, int size) {
+            long h = size * C2;
+            int end = offset + size;
+            int i = offset;
+            
+            for (; i + 8 <= end; i += 8) {
+                long k = bytesToLongLE(arr, i);
+                k *= C1;
+                k = Long.rotateLeft(k, 31);
+                k *= C2;
+                h ^= k;
+                h = Long.rotateLeft(h, 27) * 5 + 0x52dce729;
+            }
+            
+            if (i < end) {
+                long k = 0;
+                for (int shift = 0; i < end; i++, shift += 8) {
+                    k |= (arr[i] & 0xffL) << shift;
+                }
+                k *= C1;
+                k = Long.rotateLeft(k, 31);
+                k *= C2;
+                h ^= k;
+            }
+            
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+        
         private static short bytesToShortLE(byte[] arr, int offset) {
             int result = (arr[offset++] & 0x00ff);
             result |= (arr[offset++] & 0x00ff) << 8;
@@ -668,7 +1729,7 @@ public class BinsonLight {
         
         private static final void doubleToBytesLE(double value, byte[] arr, int offset) {
             long bits = Double.doubleToRawLongBits(value);
-            longToBytesLE(bits, arr, 1);
+            longToBytesLE(bits, arr, offset);
         }
     }
 }
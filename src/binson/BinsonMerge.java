@@ -0,0 +1,99 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Merges a patch object into a base object, for example a configuration overlay.
+ * Fields only in base or only in patch are kept. If a field is in both,
+ * the patch value replaces the base value, except when both values are objects;
+ * then the two objects are merged recursively.
+ *
+ * Since Binson fields are sorted, the merge is a merge-join over the two byte
+ * arrays: both are walked with BinsonLight.Parser in lockstep and fields are copied
+ * as raw bytes; adjacent fields from the same input are written with one copy.
+ * Memory use is proportional to the nesting depth, not to the size of the objects.
+ * Both inputs must be valid Binson with sorted fields.
+ */
+public class BinsonMerge {
+
+    /** No instances should be created. */
+    private BinsonMerge() {}
+
+    /**
+     * Returns the result of merging 'patch' into 'base'.
+     *
+     * @throws BinsonLight.FormatException If an input is not valid Binson.
+     */
+    public static byte[] merge(byte[] base, byte[] patch) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(base.length + patch.length);
+        try {
+            merge(base, 0, patch, 0, out);
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Merges the patch object at 'patchOffset' in 'patch' into the base object
+     * at 'baseOffset' in 'base' and writes the result to 'out'.
+     *
+     * @throws BinsonLight.FormatException If an input is not valid Binson.
+     */
+    public static void merge(byte[] base, int baseOffset, byte[] patch, int patchOffset,
+            OutputStream out) throws IOException {
+        RawRun run = new RawRun(new BinsonLight.Writer(out).begin());
+        mergeFields(new BinsonLight.Parser(base, baseOffset),
+                new BinsonLight.Parser(patch, patchOffset), run);
+        run.flush().end();
+    }
+
+    private static void mergeFields(BinsonLight.Parser base, BinsonLight.Parser patch, RawRun run)
+            throws IOException {
+        boolean hasBase = base.nextField();
+        boolean hasPatch = patch.nextField();
+
+        while (hasBase || hasPatch) {
+            int c;
+            if (!hasBase) {
+                c = 1;
+            } else if (!hasPatch) {
+                c = -1;
+            } else {
+                c = base.getName().compareTo(patch.getName());
+            }
+
+            if (c < 0) {
+                base.getRawField(run.span);
+                run.add(run.span);
+                hasBase = base.nextField();
+            } else if (c > 0) {
+                patch.getRawField(run.span);
+                run.add(run.span);
+                hasPatch = patch.nextField();
+            } else {
+                if (base.getType() == BinsonLight.ValueType.OBJECT
+                        && patch.getType() == BinsonLight.ValueType.OBJECT) {
+                    BinsonLight.StringValue name = patch.getName();
+                    run.flush().string(name.buffer, name.offset, name.size).begin();
+                    base.goIntoObject();
+                    patch.goIntoObject();
+                    mergeFields(base, patch, run);
+                    base.goUpToObject();
+                    patch.goUpToObject();
+                    run.flush().end();
+                } else {
+                    patch.getRawField(run.span);
+                    run.add(run.span);
+                }
+
+                hasBase = base.nextField();
+                hasPatch = patch.nextField();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps or drops fields of Binson objects by path, without a full parse and re-write.
+ * The input is streamed with BinsonLight.Parser; runs of untouched fields are
+ * copied as raw bytes and only objects on a configured path are re-encoded.
+ * Removing fields keeps the remaining fields sorted, so the output is valid Binson
+ * if the input is.
+ *
+ * A path is a sequence of field names separated by '.', for example "a.b".
+ * Paths do not go into arrays; array values are copied as-is.
+ * If no include paths are configured, all fields except the excluded ones are kept.
+ * Otherwise, only included fields (with their whole values) are kept, together
+ * with the objects that lead to them. Exclude paths take precedence over include paths.
+ *
+ * An instance can be reused and used by multiple threads once configured.
+ */
+public class BinsonProjection {
+    private final Node root = new Node(null);
+
+    /** Keeps the field at 'path' and its whole value. */
+    public BinsonProjection include(String path) {
+        Node node = root.add(path);
+        node.included = true;
+        root.update();
+        return this;
+    }
+
+    /** Drops the field at 'path'. */
+    public BinsonProjection exclude(String path) {
+        Node node = root.add(path);
+        node.excluded = true;
+        root.update();
+        return this;
+    }
+
+    /**
+     * Returns the transformed Binson object.
+     *
+     * @throws BinsonLight.FormatException If the input is not valid Binson.
+     */
+    public byte[] transform(byte[] binson) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(binson.length);
+        try {
+            transform(binson, 0, out);
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the transformed Binson object that starts at 'offset' in 'binson' to 'out'.
+     *
+     * @throws BinsonLight.FormatException If the input is not valid Binson.
+     */
+    public void transform(byte[] binson, int offset, OutputStream out) throws IOException {
+        RawRun run = new RawRun(new BinsonLight.Writer(out).begin());
+        BinsonLight.Parser p = new BinsonLight.Parser(binson, offset);
+        transformFields(p, root, root.hasInclude, run);
+        run.flush().end();
+    }
+
+    /**
+     * Transforms the fields of the current object.
+     * In include mode, only fields leading to included paths are kept.
+     */
+    private void transformFields(BinsonLight.Parser p, Node node, boolean includeMode, RawRun run)
+            throws IOException {
+        while (p.nextField()) {
+            Node child = node.find(p.getName());
+
+            if (child != null && child.excluded) {
+                continue;
+            }
+
+            if (includeMode) {
+                if (child == null) {
+                    continue;
+                } else if (child.included) {
+                    copyOrRecurse(p, child, run);
+                } else if (child.hasInclude && p.getType() == BinsonLight.ValueType.OBJECT) {
+                    recurse(p, child, true, run);
+                }
+            } else {
+                copyOrRecurse(p, child, run);
+            }
+        }
+    }
+
+    /** Copies the current field, or recurses into it if it contains excluded fields. */
+    private void copyOrRecurse(BinsonLight.Parser p, Node child, RawRun run) throws IOException {
+        if (child != null && child.hasExclude && p.getType() == BinsonLight.ValueType.OBJECT) {
+            recurse(p, child, false, run);
+        } else {
+            p.getRawField(run.span);
+            run.add(run.span);
+        }
+    }
+
+    private void recurse(BinsonLight.Parser p, Node child, boolean includeMode, RawRun run)
+            throws IOException {
+        BinsonLight.StringValue name = p.getName();
+        run.flush().string(name.buffer, name.offset, name.size).begin();
+        p.goIntoObject();
+        transformFields(p, child, includeMode, run);
+        p.goUpToObject();
+        run.flush().end();
+    }
+
+    /** A node in the tree of configured paths. */
+    private static final class Node {
+        final BinsonLight.StringValue name;
+        Node[] children = new Node[0];
+        boolean included;
+        boolean excluded;
+
+        /** True if this node or a descendant is included. */
+        boolean hasInclude;
+
+        /** True if a descendant is excluded. */
+        boolean hasExclude;
+
+        Node(BinsonLight.StringValue name) {
+            this.name = name;
+        }
+
+        Node add(String path) {
+            Node node = this;
+            int start = 0;
+            while (true) {
+                int dot = path.indexOf('.', start);
+                String part = dot == -1 ? path.substring(start) : path.substring(start, dot);
+                if (part.length() == 0) {
+                    throw new IllegalArgumentException("bad path: " + path);
+                }
+                node = node.child(new BinsonLight.StringValue(part));
+                if (dot == -1) {
+                    return node;
+                }
+                start = dot + 1;
+            }
+        }
+
+        private Node child(BinsonLight.StringValue childName) {
+            Node node = find(childName);
+            if (node == null) {
+                node = new Node(childName);
+                Node[] bigger = new Node[children.length + 1];
+                System.arraycopy(children, 0, bigger, 0, children.length);
+                bigger[children.length] = node;
+                children = bigger;
+            }
+            return node;
+        }
+
+        Node find(BinsonLight.StringValue childName) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i].name.equals(childName)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void update() {
+            hasInclude = included;
+            hasExclude = false;
+            for (int i = 0; i < children.length; i++) {
+                Node c = children[i];
+                c.update();
+                hasInclude |= c.hasInclude;
+                hasExclude |= c.excluded || c.hasExclude;
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring buffer that many threads write Binson objects to and one thread
+ * drains to a channel, for example application threads logging events
+ * shipped by an I/O thread.
+ *
+ * A producer claims space for one record with a compare-and-set on the
+ * shared tail position, writes the object directly into the ring with
+ * BinsonLight.Writer and commits it. The record size must be known when
+ * claiming; BinsonLight.Sizer gives the exact size. There are no locks and
+ * no allocations per record.
+ *
+ * The consumer collects committed records in order into a batch buffer
+ * and writes the batch to the channel with one write. Records start at
+ * multiples of 8 in the ring, so the batch is copied to a direct ByteBuffer
+ * without the gaps; the JDK copies heap buffers to a direct buffer
+ * before a channel write anyway.
+ *
+ * When the ring is full, the Policy decides what claim() does: BLOCK waits
+ * for the consumer, DROP returns null and counts the record as dropped.
+ */
+public class BinsonRing {
+    /** What Producer.claim() does when the ring is full. */
+    public static enum Policy {
+        /** Waits until the consumer has made room. */
+        BLOCK,
+
+        /** Drops the record, claim() returns null. */
+        DROP
+    }
+
+    private static final int ALIGNMENT = 8;
+
+    private final byte[] buffer;
+    private final int mask;
+    private final Policy policy;
+
+    /**
+     * Commit state per 8-byte block where a record can start: 0 if not committed,
+     * the record size if committed, or -n if the next n bytes are to be skipped.
+     */
+    private final AtomicIntegerArray states;
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long head;
+
+    private final ByteBuffer batch;
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param capacity  Size of the ring in bytes, a power of two, at least 16.
+     *                  Records can be at most half the capacity.
+     * @param policy    What to do when the ring is full.
+     */
+    public BinsonRing(int capacity, Policy policy) {
+        if (capacity < 16 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two >= 16, " + capacity);
+        }
+        this.buffer = new byte[capacity];
+        this.mask = capacity - 1;
+        this.policy = policy;
+        this.states = new AtomicIntegerArray(capacity / ALIGNMENT);
+        this.batch = ByteBuffer.allocateDirect(capacity / 2);
+        this.batch.flip();
+    }
+
+    /** Returns the maximum record size. */
+    public int maxRecordSize() {
+        return buffer.length / 2;
+    }
+
+    /** Returns the number of records dropped because the ring was full. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /** Returns a new producer. Each producing thread needs its own. */
+    public Producer newProducer() {
+        return new Producer();
+    }
+
+    /**
+     * Writes committed records to the channel, in the order they were claimed.
+     * Stops at the first record that is not committed yet. Must only be called
+     * from one thread at a time.
+     *
+     * If the channel does not accept all bytes (a non-blocking channel), the rest
+     * is kept and written first on the next call, and no new records are taken
+     * until then.
+     *
+     * @return The number of records taken from the ring.
+     */
+    public int drain(WritableByteChannel channel) throws IOException {
+        ByteBuffer batch = this.batch;
+
+        if (batch.hasRemaining()) {
+            channel.write(batch);
+            if (batch.hasRemaining()) {
+                return 0;
+            }
+        }
+
+        batch.clear();
+        long h = head;
+        int count = 0;
+
+        while (true) {
+            int index = (int) (h & mask);
+            int state = states.get(index / ALIGNMENT);
+            if (state == 0) {
+                break;
+            }
+
+            if (state > 0) {
+                if (state > batch.remaining()) {
+                    break;
+                }
+                batch.put(buffer, index, state);
+                h += align(state);
+                count++;
+            } else {
+                h -= state;
+            }
+
+            states.lazySet(index / ALIGNMENT, 0);
+        }
+
+        head = h;
+        batch.flip();
+
+        while (batch.hasRemaining()) {
+            if (channel.write(batch) == 0) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /** Returns true if there are no claimed records left to drain. */
+    public boolean isEmpty() {
+        return head == tail.get() && !batch.hasRemaining();
+    }
+
+    /**
+     * Writes records to the ring: call claim(), write exactly one Binson object
+     * with the returned Writer and call commit(). If writing fails, call abort()
+     * instead; a claimed record must always be committed or aborted, since the
+     * consumer waits for it. Not thread-safe; use one Producer per thread.
+     */
+    public class Producer extends OutputStream {
+        private final BinsonLight.Writer writer = new BinsonLight.Writer(this);
+        private int start = -1;
+        private int pos;
+        private int end;
+
+        private Producer() {}
+
+        /**
+         * Claims 'size' bytes for one record and returns a Writer that writes into it,
+         * or null if the ring is full and the policy is DROP.
+         *
+         * @throws IllegalArgumentException If size is not 1..maxRecordSize().
+         * @throws IllegalStateException If the previous record is not committed or aborted.
+         */
+        public BinsonLight.Writer claim(int size) {
+            if (size <= 0 || size > maxRecordSize()) {
+                throw new IllegalArgumentException("bad record size, " + size);
+            }
+            if (start != -1) {
+                throw new IllegalStateException("previous record not committed");
+            }
+
+            int capacity = buffer.length;
+            int aligned = align(size);
+
+            while (true) {
+                long t = tail.get();
+                int index = (int) (t & mask);
+                int toEnd = capacity - index;
+                int needed = aligned <= toEnd ? aligned : toEnd + aligned;
+
+                if (t + needed - head > capacity) {
+                    if (policy == Policy.DROP) {
+                        dropped.incrementAndGet();
+                        return null;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+
+                if (tail.compareAndSet(t, t + needed)) {
+                    if (needed != aligned) {
+                        states.lazySet(index / ALIGNMENT, -toEnd);
+                        index = 0;
+                    }
+                    start = pos = index;
+                    end = index + size;
+                    return writer;
+                }
+            }
+        }
+
+        /**
+         * Makes the record available to the consumer. If fewer bytes than
+         * claimed were written, the rest of the claimed space is skipped.
+         */
+        public void commit() {
+            checkClaimed();
+            int size = pos - start;
+            if (size == 0) {
+                abort();
+                return;
+            }
+
+            int claimed = align(end - start);
+            int used = align(size);
+            if (used < claimed) {
+                states.lazySet((start + used) / ALIGNMENT, used - claimed);
+            }
+
+            states.lazySet(start / ALIGNMENT, size);
+            start = -1;
+        }
+
+        /** Gives up the claimed record; the consumer skips it. */
+        public void abort() {
+            checkClaimed();
+            states.lazySet(start / ALIGNMENT, -align(end - start));
+            start = -1;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (start == -1 || pos == end) {
+                throw new IOException("record larger than claimed");
+            }
+            buffer[pos++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (start == -1 || len > end - pos) {
+                throw new IOException("record larger than claimed");
+            }
+            System.arraycopy(b, off, buffer, pos, len);
+            pos += len;
+        }
+
+        private void checkClaimed() {
+            if (start == -1) {
+                throw new IllegalStateException("no claimed record");
+            }
+        }
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
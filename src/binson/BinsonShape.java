@@ -0,0 +1,273 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+/**
+ * Reads a fixed set of top-level fields from objects that usually have the
+ * same layout, for example all messages of one type. An inline cache for
+ * field lookup.
+ *
+ * The first object is read with a BinsonLight.Parser by comparing each field
+ * name with the wanted names, using that fields are sorted. The names of the
+ * fields up to the last wanted one are then remembered, together with which of
+ * them are wanted. For the next object, each field name is only checked for
+ * equality with the remembered name at the same position; when all match, the
+ * wanted values are found without any name ordering comparisons, and fields
+ * after the last wanted one are not looked at. If a name does not match, the
+ * object is read the slow way and its layout is remembered instead.
+ * hits() and misses() count how often the remembered layout matched.
+ *
+ * Example:
+ * <pre>
+ * BinsonShape shape = new BinsonShape("qty", "type");
+ * if (shape.read(buffer, offset)) {
+ *     long qty = shape.getInteger(0);
+ *     BinsonLight.StringValue type = shape.getString(1);
+ * }
+ * </pre>
+ *
+ * Not thread-safe; use one instance per message type and thread.
+ */
+public class BinsonShape {
+    private final BinsonLight.StringValue[] names;
+
+    /** Indexes of the wanted names, in Binson field order. */
+    private final int[] order;
+
+    /** Parser positions of the wanted values, valid where 'present' is set. */
+    private final BinsonLight.Parser.Mark[] marks;
+    private final boolean[] present;
+    private final BinsonLight.Parser parser = new BinsonLight.Parser(new byte[0]);
+
+    /** The remembered layout: field names, end of each name, wanted index or -1. */
+    private Layout layout = new Layout();
+    private Layout scratch = new Layout();
+    private boolean cached;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a new BinsonShape for the wanted field names. Values are
+     * accessed by the index of the name in 'names'.
+     */
+    public BinsonShape(String... names) {
+        int n = names.length;
+        this.names = new BinsonLight.StringValue[n];
+        this.order = new int[n];
+        this.marks = new BinsonLight.Parser.Mark[n];
+        this.present = new boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            this.names[i] = new BinsonLight.StringValue(names[i]);
+            this.marks[i] = new BinsonLight.Parser.Mark();
+            int j = i;
+            for (; j > 0 && this.names[order[j - 1]].compareTo(this.names[i]) > 0; j--) {
+                order[j] = order[j - 1];
+            }
+            order[j] = i;
+        }
+
+        for (int i = 1; i < n; i++) {
+            if (this.names[order[i - 1]].equals(this.names[order[i]])) {
+                throw new IllegalArgumentException("duplicate name: " + this.names[order[i]]);
+            }
+        }
+    }
+
+    /**
+     * Reads the wanted fields of the object that starts at 'offset' in 'buffer'.
+     * Returns true if all wanted fields were found; otherwise, has() tells which.
+     * The values are available until the next call.
+     *
+     * @throws BinsonLight.FormatException If the object is not valid Binson.
+     */
+    public boolean read(byte[] buffer, int offset) {
+        parser.reset(buffer, offset);
+        if (cached && readCached()) {
+            hits++;
+            return true;
+        }
+
+        misses++;
+        parser.reset(buffer, offset);
+        return learn();
+    }
+
+    /** Returns true if the wanted field 'index' was found by the last read(). */
+    public boolean has(int index) {
+        return present[index];
+    }
+
+    /** Returns the type of the wanted field 'index'. */
+    public BinsonLight.ValueType getType(int index) {
+        return at(index).getType();
+    }
+
+    public long getInteger(int index) {
+        return at(index, BinsonLight.ValueType.INTEGER).getInteger();
+    }
+
+    public double getDouble(int index) {
+        return at(index, BinsonLight.ValueType.DOUBLE).getDouble();
+    }
+
+    public boolean getBoolean(int index) {
+        return at(index, BinsonLight.ValueType.BOOLEAN).getBoolean();
+    }
+
+    /** Returns the string value, the StringValue is reused by the next call. */
+    public BinsonLight.StringValue getString(int index) {
+        return at(index, BinsonLight.ValueType.STRING).getString();
+    }
+
+    /** Returns the bytes value, the BytesValue is reused by the next call. */
+    public BinsonLight.BytesValue getBytes(int index) {
+        return at(index, BinsonLight.ValueType.BYTES).getBytes();
+    }
+
+    /**
+     * Sets 'dest' to the raw bytes of the value, of any type. For example,
+     * an object value can be parsed with new BinsonLight.Parser(dest.buffer, dest.offset).
+     */
+    public void getRawValue(int index, BinsonLight.BytesValue dest) {
+        at(index).getRawValue(dest);
+    }
+
+    /** Returns the number of reads where the remembered layout matched. */
+    public long hits() {
+        return hits;
+    }
+
+    /** Returns the number of reads where the layout had to be found by name lookup. */
+    public long misses() {
+        return misses;
+    }
+
+    /** Sets hits() and misses() to zero. */
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    private boolean readCached() {
+        BinsonLight.Parser parser = this.parser;
+        Layout layout = this.layout;
+        int start = 0;
+
+        for (int k = 0; k < layout.count; k++) {
+            if (!parser.nextField()) {
+                return false;
+            }
+
+            BinsonLight.StringValue name = parser.getName();
+            int end = layout.ends[k];
+            if (name.size != end - start) {
+                return false;
+            }
+            for (int i = 0; i < name.size; i++) {
+                if (name.buffer[name.offset + i] != layout.names[start + i]) {
+                    return false;
+                }
+            }
+            start = end;
+
+            int wanted = layout.wanted[k];
+            if (wanted != -1) {
+                parser.mark(marks[wanted]);
+                present[wanted] = true;
+            }
+        }
+
+        return true;
+    }
+
+    /** Finds the wanted fields by name, remembers the layout if all are found. */
+    private boolean learn() {
+        BinsonLight.Parser parser = this.parser;
+        Layout l = scratch;
+        l.count = 0;
+        int n = order.length;
+        int w = 0;
+        int found = 0;
+
+        for (int i = 0; i < n; i++) {
+            present[i] = false;
+        }
+
+        while (w < n && parser.nextField()) {
+            BinsonLight.StringValue name = parser.getName();
+            int wanted = -1;
+            int c;
+            while (w < n && (c = names[order[w]].compareTo(name)) <= 0) {
+                if (c == 0) {
+                    wanted = order[w];
+                    parser.mark(marks[wanted]);
+                    present[wanted] = true;
+                    found++;
+                }
+                w++;
+            }
+
+            l.add(name.buffer, name.offset, name.size, wanted);
+        }
+
+        if (found < n) {
+            return false;
+        }
+
+        scratch = layout;
+        layout = l;
+        cached = true;
+        return true;
+    }
+
+    /** Returns the parser, positioned at the value of the wanted field 'index'. */
+    private BinsonLight.Parser at(int index) {
+        if (!present[index]) {
+            throw new IllegalStateException("no field named '" + names[index] + "'");
+        }
+        parser.reset(marks[index]);
+        return parser;
+    }
+
+    private BinsonLight.Parser at(int index, BinsonLight.ValueType type) {
+        BinsonLight.Parser p = at(index);
+        if (p.getType() != type) {
+            throw new BinsonLight.FormatException("field '" + names[index] + "' has type "
+                    + p.getType() + ", expected " + type);
+        }
+        return p;
+    }
+
+    /** Field names of a layout. */
+    private static final class Layout {
+        byte[] names = new byte[64];
+        int[] ends = new int[8];
+        int[] wanted = new int[8];
+        int count;
+
+        void add(byte[] buffer, int start, int len, int wantedIndex) {
+            int offset = count == 0 ? 0 : ends[count - 1];
+
+            if (offset + len > names.length) {
+                byte[] a = new byte[Math.max(offset + len, names.length * 2)];
+                System.arraycopy(names, 0, a, 0, offset);
+                names = a;
+            }
+            if (count == ends.length) {
+                int[] e = new int[count * 2];
+                int[] w = new int[count * 2];
+                System.arraycopy(ends, 0, e, 0, count);
+                System.arraycopy(wanted, 0, w, 0, count);
+                ends = e;
+                wanted = w;
+            }
+
+            System.arraycopy(buffer, start, names, offset, len);
+            ends[count] = offset + len;
+            wanted[count] = wantedIndex;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import static binson.BinsonLight.BEGIN;
+import static binson.BinsonLight.BEGIN_ARRAY;
+import static binson.BinsonLight.BYTES1;
+import static binson.BinsonLight.BYTES4;
+import static binson.BinsonLight.DOUBLE;
+import static binson.BinsonLight.END;
+import static binson.BinsonLight.END_ARRAY;
+import static binson.BinsonLight.FALSE;
+import static binson.BinsonLight.INTEGER1;
+import static binson.BinsonLight.INTEGER8;
+import static binson.BinsonLight.STRING1;
+import static binson.BinsonLight.STRING4;
+import static binson.BinsonLight.TRUE;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Parses a Binson object from an InputStream or a ReadableByteChannel with
+ * the same field/array navigation API as BinsonLight.Parser.
+ * Bytes are read through a fixed-size window that is refilled as needed,
+ * so memory use is bounded by the window size, not by the size of the input.
+ *
+ * String and bytes values that fit in the window are available with
+ * getString() and getBytes(). Larger values are not loaded; isValueLoaded()
+ * returns false and the value can be read in chunks with readValue().
+ * Unread bytes are skipped when the parser moves on. Skipped objects and arrays
+ * are scanned without decoding their values.
+ *
+ * Values returned by getName(), getString() and getBytes() refer to internal
+ * buffers and are valid until the next call that moves the parser.
+ * Field names must fit in the window. The parser may read ahead of the
+ * end of the object, so the stream should contain one object only.
+ */
+public class BinsonStreamParser {
+    private static final int STATE_ZERO = 200;
+    private static final int STATE_BEFORE_FIELD = 201;
+    private static final int STATE_BEFORE_ARRAY_VALUE = 202;
+    private static final int STATE_BEFORE_ARRAY = 203;
+    private static final int STATE_END_OF_ARRAY = 204;
+    private static final int STATE_BEFORE_OBJECT = 205;
+    private static final int STATE_END_OF_OBJECT = 206;
+
+    private final InputStream in;
+    private final byte[] window;
+    private int pos;
+    private int limit;
+    private int state = STATE_ZERO;
+
+    private BinsonLight.ValueType type;
+    private final BinsonLight.StringValue name = new BinsonLight.StringValue();
+    private byte[] nameBuffer = new byte[32];
+    private boolean booleanValue;
+    private long integerValue;
+    private double doubleValue;
+    private final BinsonLight.StringValue stringValue = new BinsonLight.StringValue();
+    private final BinsonLight.BytesValue bytesValue = new BinsonLight.BytesValue();
+
+    private long valueSize;
+    private boolean valueLoaded;
+
+    /** Bytes of a large string/bytes value not yet read. */
+    private long pending;
+
+    /**
+     * Creates a new parser that reads from 'in' using a window
+     * of 'windowSize' bytes.
+     */
+    public BinsonStreamParser(InputStream in, int windowSize) {
+        if (windowSize < 16) {
+            throw new IllegalArgumentException("windowSize too small, " + windowSize);
+        }
+        this.in = in;
+        this.window = new byte[windowSize];
+    }
+
+    /**
+     * Creates a new parser that reads from 'channel' using a window
+     * of 'windowSize' bytes.
+     */
+    public BinsonStreamParser(ReadableByteChannel channel, int windowSize) {
+        this(Channels.newInputStream(channel), windowSize);
+    }
+
+    /**
+     * Parses until an expected field with the given name is found
+     * (without considering fields of inner objects).
+     *
+     * @throws BinsonLight.FormatException
+     *         If a field with the expected name was not found.
+     */
+    public void field(String name) throws IOException {
+        BinsonLight.StringValue expected = new BinsonLight.StringValue(name);
+        while (nextField()) {
+            if (this.name.equals(expected)) {
+                return;
+            }
+        }
+
+        throw new BinsonLight.FormatException("no field named '" + name + "'");
+    }
+
+    /**
+     * Reads next field, returns true if a field was found and false
+     * if end-of-object was reached. See BinsonLight.Parser.nextField().
+     *
+     * @throws IllegalStateException if end-of-object was reached already.
+     */
+    public boolean nextField() throws IOException {
+        skipPending();
+
+        if (state == STATE_ZERO) {
+            if (readOne() != BEGIN) {
+                throw new BinsonLight.FormatException("Expected BEGIN.");
+            }
+            state = STATE_BEFORE_FIELD;
+        } else if (state == STATE_END_OF_OBJECT) {
+            throw new IllegalStateException("reached end-of-object");
+        } else if (state == STATE_BEFORE_OBJECT || state == STATE_BEFORE_ARRAY) {
+            skipContainer();
+            state = STATE_BEFORE_FIELD;
+        }
+
+        if (state != STATE_BEFORE_FIELD) {
+            throw new IllegalStateException("not ready to read a field, state: " + state);
+        }
+
+        byte typeBeforeName = readOne();
+        if (typeBeforeName == END) {
+            state = STATE_END_OF_OBJECT;
+            return false;
+        }
+        parseFieldName(typeBeforeName);
+        parseValue(readOne(), STATE_BEFORE_FIELD);
+        return true;
+    }
+
+    /**
+     * Reads next array value, returns true if a value was found and false
+     * if end-of-array was reached.
+     */
+    public boolean nextArrayValue() throws IOException {
+        skipPending();
+
+        if (state == STATE_BEFORE_ARRAY || state == STATE_BEFORE_OBJECT) {
+            skipContainer();
+            state = STATE_BEFORE_ARRAY_VALUE;
+        }
+
+        if (state != STATE_BEFORE_ARRAY_VALUE) {
+            throw new IllegalStateException("not before array value, " + state);
+        }
+
+        byte typeByte = readOne();
+        if (typeByte == END_ARRAY) {
+            state = STATE_END_OF_ARRAY;
+            return false;
+        }
+
+        parseValue(typeByte, STATE_BEFORE_ARRAY_VALUE);
+        return true;
+    }
+
+    /** Checks whether current field name equals the provided one. */
+    public boolean nameEquals(BinsonLight.StringValue name) {
+        return this.name.equals(name);
+    }
+
+    /**
+     * Checks whether current field name equals the provided name.
+     * Note, this method does allocate memory.
+     */
+    public boolean nameEquals(String name) {
+        return this.name.toString().equals(name);
+    }
+
+    public void goIntoObject() {
+        if (state != STATE_BEFORE_OBJECT) {
+            throw new IllegalStateException("unexpected parser state, not an object field");
+        }
+        state = STATE_BEFORE_FIELD;
+    }
+
+    public void goIntoArray() {
+        if (state != STATE_BEFORE_ARRAY) {
+            throw new IllegalStateException("unexpected parser state, not an array field");
+        }
+        state = STATE_BEFORE_ARRAY_VALUE;
+    }
+
+    public void goUpToObject() throws IOException {
+        goUp();
+        state = STATE_BEFORE_FIELD;
+    }
+
+    public void goUpToArray() throws IOException {
+        goUp();
+        state = STATE_BEFORE_ARRAY_VALUE;
+    }
+
+    /** Returns the type of the last value parsed. */
+    public final BinsonLight.ValueType getType() {
+        return type;
+    }
+
+    /** Returns the name of the last field parsed. */
+    public final BinsonLight.StringValue getName() {
+        return name;
+    }
+
+    /** Returns the last boolean value parsed. */
+    public final boolean getBoolean() {
+        return booleanValue;
+    }
+
+    /** Returns the last integer value parsed. */
+    public final long getInteger() {
+        return integerValue;
+    }
+
+    /** Returns the last double value parsed. */
+    public final double getDouble() {
+        return doubleValue;
+    }
+
+    /**
+     * Returns the last string value parsed.
+     *
+     * @throws IllegalStateException If the value was too large to be loaded.
+     */
+    public final BinsonLight.StringValue getString() {
+        checkLoaded();
+        return stringValue;
+    }
+
+    /**
+     * Returns the last bytes value parsed.
+     *
+     * @throws IllegalStateException If the value was too large to be loaded.
+     */
+    public final BinsonLight.BytesValue getBytes() {
+        checkLoaded();
+        return bytesValue;
+    }
+
+    /** Returns the size in bytes of the last string or bytes value parsed. */
+    public final long getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * Returns true if the last string or bytes value parsed is available
+     * with getString() or getBytes(). Returns false if the value is larger
+     * than the window; then it must be read with readValue().
+     */
+    public final boolean isValueLoaded() {
+        return valueLoaded;
+    }
+
+    /**
+     * Reads up to 'length' bytes of a string or bytes value that was not loaded.
+     * Returns the number of bytes read, or -1 if the whole value has been read.
+     */
+    public int readValue(byte[] dest, int offset, int length) throws IOException {
+        if (pending == 0) {
+            return -1;
+        }
+
+        int n = (int) Math.min(length, pending);
+        if (limit > pos) {
+            n = Math.min(n, limit - pos);
+            System.arraycopy(window, pos, dest, offset, n);
+            pos += n;
+        } else {
+            n = in.read(dest, offset, n);
+            if (n < 0) {
+                throw unexpectedEnd();
+            }
+        }
+
+        pending -= n;
+        return n;
+    }
+
+    private void goUp() throws IOException {
+        skipPending();
+
+        if (state == STATE_BEFORE_OBJECT || state == STATE_BEFORE_ARRAY) {
+            skipContainer();
+            skipContainer();
+        } else if (state == STATE_BEFORE_FIELD || state == STATE_BEFORE_ARRAY_VALUE) {
+            skipContainer();
+        } else if (state != STATE_END_OF_OBJECT && state != STATE_END_OF_ARRAY) {
+            throw new IllegalStateException("unexpected parser state, " + state);
+        }
+    }
+
+    private void checkLoaded() {
+        if (!valueLoaded) {
+            throw new IllegalStateException("value not loaded, size " + valueSize + ", use readValue()");
+        }
+    }
+
+    private void parseValue(byte typeByte, int afterValueState) throws IOException {
+        if (typeByte == BEGIN) {
+            type = BinsonLight.ValueType.OBJECT;
+            state = STATE_BEFORE_OBJECT;
+        } else if (typeByte == BEGIN_ARRAY) {
+            type = BinsonLight.ValueType.ARRAY;
+            state = STATE_BEFORE_ARRAY;
+        } else if (typeByte == TRUE || typeByte == FALSE) {
+            type = BinsonLight.ValueType.BOOLEAN;
+            booleanValue = typeByte == TRUE;
+            state = afterValueState;
+        } else if (typeByte == DOUBLE) {
+            type = BinsonLight.ValueType.DOUBLE;
+            ensure(8);
+            doubleValue = Double.longBitsToDouble(getLongLE(8));
+            pos += 8;
+            state = afterValueState;
+        } else if (typeByte >= INTEGER1 && typeByte <= INTEGER8) {
+            type = BinsonLight.ValueType.INTEGER;
+            integerValue = parseInteger(typeByte);
+            state = afterValueState;
+        } else if (typeByte >= STRING1 && typeByte <= STRING4) {
+            type = BinsonLight.ValueType.STRING;
+            parseStringOrBytes(typeByte);
+            if (valueLoaded) {
+                stringValue.set(window, pos - (int) valueSize, (int) valueSize);
+            }
+            state = afterValueState;
+        } else if (typeByte >= BYTES1 && typeByte <= BYTES4) {
+            type = BinsonLight.ValueType.BYTES;
+            parseStringOrBytes(typeByte);
+            if (valueLoaded) {
+                bytesValue.set(window, pos - (int) valueSize, (int) valueSize);
+            }
+            state = afterValueState;
+        } else {
+            throw new BinsonLight.FormatException("Unexpected type byte: " + typeByte + ".");
+        }
+    }
+
+    private void parseStringOrBytes(byte typeByte) throws IOException {
+        long len = parseInteger(typeByte);
+        if (len < 0) {
+            throw new BinsonLight.FormatException("Bad length, " + len + ".");
+        }
+
+        valueSize = len;
+        if (len <= window.length) {
+            ensure((int) len);
+            pos += (int) len;
+            valueLoaded = true;
+        } else {
+            pending = len;
+            valueLoaded = false;
+        }
+    }
+
+    private void parseFieldName(byte typeBeforeName) throws IOException {
+        if (typeBeforeName < STRING1 || typeBeforeName > STRING4) {
+            throw new BinsonLight.FormatException("unexpected type: " + typeBeforeName);
+        }
+
+        long len = parseInteger(typeBeforeName);
+        if (len < 0 || len > window.length) {
+            throw new BinsonLight.FormatException("Bad length of field name, " + len + ".");
+        }
+
+        int size = (int) len;
+        ensure(size);
+        if (nameBuffer.length < size) {
+            nameBuffer = new byte[Math.max(size, nameBuffer.length * 2)];
+        }
+        System.arraycopy(window, pos, nameBuffer, 0, size);
+        pos += size;
+        name.set(nameBuffer, 0, size);
+    }
+
+    private long parseInteger(byte typeByte) throws IOException {
+        int width = 1 << (typeByte & 0x03);
+        ensure(width);
+        long value;
+
+        switch (width) {
+        case 1:
+            value = window[pos];
+            break;
+        case 2:
+            value = (short) getLongLE(2);
+            break;
+        case 4:
+            value = (int) getLongLE(4);
+            break;
+        default:
+            value = getLongLE(8);
+        }
+
+        pos += width;
+        return value;
+    }
+
+    /**
+     * Skips the rest of the current object or array, including its end marker.
+     * Only type bytes and lengths are read; values are not decoded.
+     */
+    private void skipContainer() throws IOException {
+        int depth = 1;
+
+        while (depth > 0) {
+            byte t = readOne();
+
+            if (t == BEGIN || t == BEGIN_ARRAY) {
+                depth++;
+            } else if (t == END || t == END_ARRAY) {
+                depth--;
+            } else if (t == TRUE || t == FALSE) {
+                // No payload.
+            } else if (t == DOUBLE) {
+                skip(8);
+            } else if (t >= INTEGER1 && t <= INTEGER8) {
+                skip(1 << (t & 0x03));
+            } else if ((t >= STRING1 && t <= STRING4) || (t >= BYTES1 && t <= BYTES4)) {
+                long len = parseInteger(t);
+                if (len < 0) {
+                    throw new BinsonLight.FormatException("Bad length, " + len + ".");
+                }
+                skip(len);
+            } else {
+                throw new BinsonLight.FormatException("Unexpected type byte: " + t + ".");
+            }
+        }
+    }
+
+    private void skipPending() throws IOException {
+        if (pending > 0) {
+            skip(pending);
+            pending = 0;
+        }
+    }
+
+    private void skip(long n) throws IOException {
+        int inWindow = (int) Math.min(n, limit - pos);
+        pos += inWindow;
+        n -= inWindow;
+
+        while (n > 0) {
+            int r = in.read(window, 0, (int) Math.min(n, window.length));
+            if (r < 0) {
+                throw unexpectedEnd();
+            }
+            n -= r;
+        }
+    }
+
+    private byte readOne() throws IOException {
+        ensure(1);
+        return window[pos++];
+    }
+
+    /** Makes sure 'n' bytes are available in the window from 'pos'. */
+    private void ensure(int n) throws IOException {
+        if (limit - pos >= n) {
+            return;
+        }
+
+        System.arraycopy(window, pos, window, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+
+        while (limit < n) {
+            int r = in.read(window, limit, window.length - limit);
+            if (r < 0) {
+                throw unexpectedEnd();
+            }
+            limit += r;
+        }
+    }
+
+    private long getLongLE(int width) {
+        long result = 0;
+        for (int i = width - 1; i >= 0; i--) {
+            result = (result << 8) | (window[pos + i] & 0xffL);
+        }
+        return result;
+    }
+
+    private static BinsonLight.FormatException unexpectedEnd() {
+        return new BinsonLight.FormatException("Unexpected end of input.");
+    }
+}
@@ -0,0 +1,308 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import static binson.BinsonLight.DOUBLE;
+import static binson.BinsonLight.FALSE;
+import static binson.BinsonLight.INTEGER1;
+import static binson.BinsonLight.STRING1;
+import static binson.BinsonLight.TRUE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Prepared messages with a constant structure where only some values change,
+ * for example telemetry sent at a high rate.
+ *
+ * The constant skeleton (names, structure, constant values) is encoded once
+ * with a BinsonLight.Writer that writes to a Builder. Where a value changes
+ * from message to message, a slot is added instead of a value. A Message is
+ * a copy of the skeleton; setting a slot patches the bytes in place, so sending
+ * a message is a few patches and one write of the buffer.
+ *
+ * Values are encoded as BinsonLight.Writer encodes them, so a message equals,
+ * byte for byte, the same message written with a Writer. Double and boolean
+ * slots have a fixed size. An integer or string slot is patched in place when
+ * the encoded size does not change; otherwise the bytes after the slot are
+ * moved and the positions of the following slots are adjusted.
+ *
+ * Example:
+ * <pre>
+ * BinsonTemplate.Builder b = new BinsonTemplate.Builder();
+ * BinsonLight.Writer w = new BinsonLight.Writer(b);
+ * w.begin().name("count");
+ * int count = b.integerSlot();
+ * w.name("host").string("a1").name("temp");
+ * int temp = b.doubleSlot();
+ * w.end();
+ * BinsonTemplate t = b.build();
+ *
+ * BinsonTemplate.Message m = t.newMessage();
+ * m.setInteger(count, 17).setDouble(temp, 21.5).writeTo(out);
+ * </pre>
+ *
+ * A BinsonTemplate is immutable and can be shared between threads;
+ * a Message is not thread-safe.
+ */
+public class BinsonTemplate {
+    private final byte[] skeleton;
+    private final BinsonLight.ValueType[] slotTypes;
+    private final int[] slotOffsets;
+
+    private BinsonTemplate(byte[] skeleton, BinsonLight.ValueType[] slotTypes, int[] slotOffsets) {
+        this.skeleton = skeleton;
+        this.slotTypes = slotTypes;
+        this.slotOffsets = slotOffsets;
+    }
+
+    /**
+     * Collects the skeleton of a template. Write constant parts with
+     * a BinsonLight.Writer that writes to this stream and call the slot methods
+     * where a value changes. Slots are numbered from 0 in the order they are added.
+     */
+    public static class Builder extends ByteArrayOutputStream {
+        private BinsonLight.ValueType[] types = new BinsonLight.ValueType[8];
+        private int[] offsets = new int[8];
+        private int slots;
+
+        public Builder() {
+            super(256);
+        }
+
+        /** Adds an integer slot, initially 0. */
+        public int integerSlot() {
+            int slot = addSlot(BinsonLight.ValueType.INTEGER);
+            write(INTEGER1);
+            write(0);
+            return slot;
+        }
+
+        /** Adds a double slot, initially 0.0. */
+        public int doubleSlot() {
+            int slot = addSlot(BinsonLight.ValueType.DOUBLE);
+            write(new byte[] {DOUBLE, 0, 0, 0, 0, 0, 0, 0, 0}, 0, 9);
+            return slot;
+        }
+
+        /** Adds a boolean slot, initially false. */
+        public int booleanSlot() {
+            int slot = addSlot(BinsonLight.ValueType.BOOLEAN);
+            write(FALSE);
+            return slot;
+        }
+
+        /** Adds a string slot, initially the empty string. */
+        public int stringSlot() {
+            int slot = addSlot(BinsonLight.ValueType.STRING);
+            write(STRING1);
+            write(0);
+            return slot;
+        }
+
+        /** Returns a template with the bytes and slots written so far. */
+        public BinsonTemplate build() {
+            BinsonLight.ValueType[] t = new BinsonLight.ValueType[slots];
+            int[] o = new int[slots];
+            System.arraycopy(types, 0, t, 0, slots);
+            System.arraycopy(offsets, 0, o, 0, slots);
+            return new BinsonTemplate(toByteArray(), t, o);
+        }
+
+        private int addSlot(BinsonLight.ValueType type) {
+            if (slots == types.length) {
+                BinsonLight.ValueType[] t = new BinsonLight.ValueType[slots * 2];
+                int[] o = new int[slots * 2];
+                System.arraycopy(types, 0, t, 0, slots);
+                System.arraycopy(offsets, 0, o, 0, slots);
+                types = t;
+                offsets = o;
+            }
+            types[slots] = type;
+            offsets[slots] = count;
+            return slots++;
+        }
+    }
+
+    /** Returns the number of slots. */
+    public int slots() {
+        return slotTypes.length;
+    }
+
+    /** Returns the type of a slot: INTEGER, DOUBLE, BOOLEAN or STRING. */
+    public BinsonLight.ValueType slotType(int slot) {
+        return slotTypes[slot];
+    }
+
+    /** Returns a new message with the skeleton and the initial slot values. */
+    public Message newMessage() {
+        return new Message(this);
+    }
+
+    /**
+     * A message created from a template. The slot setters return this Message
+     * to allow chaining. Not thread-safe.
+     */
+    public static class Message {
+        private final BinsonTemplate template;
+        private final int[] offsets;
+        private byte[] buffer;
+        private int size;
+
+        private Message(BinsonTemplate template) {
+            this.template = template;
+            this.offsets = new int[template.slotOffsets.length];
+            this.buffer = new byte[template.skeleton.length];
+            reset();
+        }
+
+        /** Sets all slots back to their initial values. */
+        public Message reset() {
+            byte[] skeleton = template.skeleton;
+            if (buffer.length < skeleton.length) {
+                buffer = new byte[skeleton.length];
+            }
+            System.arraycopy(skeleton, 0, buffer, 0, skeleton.length);
+            System.arraycopy(template.slotOffsets, 0, offsets, 0, offsets.length);
+            size = skeleton.length;
+            return this;
+        }
+
+        public Message setInteger(int slot, long value) {
+            int pos = check(slot, BinsonLight.ValueType.INTEGER);
+            int oldSize = 1 + (1 << (buffer[pos] & 3));
+            int newSize = BinsonLight.Sizer.integerOrLengthSize(value);
+            resize(pos, oldSize, newSize);
+
+            buffer[pos] = typeByte(INTEGER1, newSize);
+            putLE(value, buffer, pos + 1, newSize - 1);
+            return this;
+        }
+
+        public Message setDouble(int slot, double value) {
+            putLongLE(Double.doubleToRawLongBits(value), buffer,
+                    check(slot, BinsonLight.ValueType.DOUBLE) + 1);
+            return this;
+        }
+
+        public Message setBoolean(int slot, boolean value) {
+            buffer[check(slot, BinsonLight.ValueType.BOOLEAN)] = value ? TRUE : FALSE;
+            return this;
+        }
+
+        public Message setString(int slot, String value) {
+            byte[] utf8;
+            try {
+                utf8 = value.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new Error(e);
+            }
+            return setString(slot, utf8, 0, utf8.length);
+        }
+
+        /** Sets a string slot given the UTF-8 bytes in utf8[offset, offset + length). */
+        public Message setString(int slot, byte[] utf8, int offset, int length) {
+            int pos = check(slot, BinsonLight.ValueType.STRING);
+            byte[] buffer = this.buffer;
+
+            int oldHeader = 1 + (1 << (buffer[pos] & 3));
+            int oldSize = oldHeader + (int) getLE(buffer, pos + 1, oldHeader - 1);
+            int header = BinsonLight.Sizer.integerOrLengthSize(length);
+            resize(pos, oldSize, header + length);
+
+            buffer = this.buffer;
+            buffer[pos] = typeByte(STRING1, header);
+            putLE(length, buffer, pos + 1, header - 1);
+            System.arraycopy(utf8, offset, buffer, pos + header, length);
+            return this;
+        }
+
+        /** Returns the buffer with the message, valid until an integer or string slot is set. */
+        public byte[] buffer() {
+            return buffer;
+        }
+
+        /** Returns the size of the message, it starts at offset 0 of buffer(). */
+        public int size() {
+            return size;
+        }
+
+        /** Returns a copy of the message bytes. */
+        public byte[] toBytes() {
+            byte[] result = new byte[size];
+            System.arraycopy(buffer, 0, result, 0, size);
+            return result;
+        }
+
+        /** Writes the message to 'out'. */
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(buffer, 0, size);
+        }
+
+        /**
+         * Changes the size of the value at 'pos' from oldSize to newSize by moving
+         * the bytes after it, and adjusts the positions of the following slots.
+         */
+        private void resize(int pos, int oldSize, int newSize) {
+            int delta = newSize - oldSize;
+            if (delta == 0) {
+                return;
+            }
+
+            int oldEnd = pos + oldSize;
+            if (size + delta > buffer.length) {
+                byte[] bigger = new byte[Math.max(size + delta, buffer.length * 2)];
+                System.arraycopy(buffer, 0, bigger, 0, pos);
+                System.arraycopy(buffer, oldEnd, bigger, oldEnd + delta, size - oldEnd);
+                buffer = bigger;
+            } else {
+                System.arraycopy(buffer, oldEnd, buffer, oldEnd + delta, size - oldEnd);
+            }
+
+            size += delta;
+            for (int i = 0; i < offsets.length; i++) {
+                if (offsets[i] > pos) {
+                    offsets[i] += delta;
+                }
+            }
+        }
+
+        private int check(int slot, BinsonLight.ValueType type) {
+            if (template.slotTypes[slot] != type) {
+                throw new IllegalArgumentException("slot " + slot + " has type "
+                        + template.slotTypes[slot] + ", not " + type);
+            }
+            return offsets[slot];
+        }
+    }
+
+    /** Returns the type byte for a value or length encoded with 'size' bytes: 2, 3, 5 or 9. */
+    private static byte typeByte(byte baseType, int size) {
+        switch (size) {
+        case 2: return baseType;
+        case 3: return (byte) (baseType + 1);
+        case 5: return (byte) (baseType + 2);
+        default: return (byte) (baseType + 3);
+        }
+    }
+
+    private static void putLongLE(long value, byte[] arr, int offset) {
+        putLE(value, arr, offset, 8);
+    }
+
+    private static void putLE(long value, byte[] arr, int offset, int size) {
+        for (int i = 0; i < size; i++) {
+            arr[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static long getLE(byte[] arr, int offset, int size) {
+        long result = 0;
+        for (int i = 0; i < size; i++) {
+            result |= (arr[offset + i] & 0xffL) << (8 * i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,50 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.IOException;
+
+/**
+ * Copies raw field spans to a BinsonLight.Writer. Spans that are adjacent in
+ * the same buffer, such as consecutive fields copied from one object, are
+ * joined and written with one Writer.raw() call. Used by BinsonMerge and
+ * BinsonProjection.
+ *
+ * Spans are held until a span that is not adjacent is added or until flush()
+ * is called; write other values with the Writer returned by flush().
+ */
+final class RawRun {
+    /** Scratch span for the caller, for example for Parser.getRawField(). */
+    final BinsonLight.BytesValue span = new BinsonLight.BytesValue();
+
+    private final BinsonLight.Writer writer;
+    private byte[] buffer;
+    private int start;
+    private int end;
+
+    RawRun(BinsonLight.Writer writer) {
+        this.writer = writer;
+    }
+
+    /** Adds the bytes of 's' after the bytes added so far. */
+    void add(BinsonLight.BytesValue s) throws IOException {
+        if (buffer == s.buffer && end == s.offset) {
+            end += s.size;
+            return;
+        }
+
+        flush();
+        buffer = s.buffer;
+        start = s.offset;
+        end = s.offset + s.size;
+    }
+
+    /** Writes the bytes held, returns the Writer. */
+    BinsonLight.Writer flush() throws IOException {
+        if (buffer != null) {
+            writer.raw(buffer, start, end - start);
+            buffer = null;
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,17 @@
+// This code is PUBLIC DOMAIN. Use it as you please.
+
+package binson;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A ByteArrayOutputStream that gives access to its internal buffer, so the
+ * bytes written can be parsed or copied without toByteArray(). Used by
+ * BinsonJson and BinsonDelta.
+ */
+final class ScratchBuffer extends ByteArrayOutputStream {
+    /** Returns the internal buffer; the bytes written are buffer()[0, size()). */
+    byte[] buffer() {
+        return buf;
+    }
+}